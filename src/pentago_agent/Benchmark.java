@@ -0,0 +1,1086 @@
+package pentago_agent;
+
+import pentago_agent.Montecarlo.MCTS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Benchmarks used to measure the throughput of the agent. From the root directory of the project, run
+ *
+ *     ant benchmark -Dbenchmark=name
+ *
+ * Where name is one of the benchmarks registered in BENCHMARKS.
+ */
+public class Benchmark {
+
+    /**
+     * Seed used to generate the positions benchmarked such that runs are comparable
+     */
+    private static final long POSITION_SEED = 424;
+
+    /**
+     * Number of random moves played from an empty board to get to the benchmarked positions
+     */
+    private static final int[] MID_GAME_PLIES = {6, 10, 14};
+
+    private static final long SEARCH_TIME = 1000;
+
+    /**
+     * Number of simulations ran to grow the trees measured by the memory benchmark
+     */
+    private static final int MEMORY_SIMULATIONS = 100000;
+
+    /**
+     * Smallest and largest simulation budgets searched by the convergence benchmark. The budget is doubled in between.
+     */
+    private static final int MIN_CONVERGENCE_SIMULATIONS = 1000;
+    private static final int MAX_CONVERGENCE_SIMULATIONS = 64000;
+
+    /**
+     * Total number of simulations ran by a convergence measurement
+     */
+    private static final int CONVERGENCE_SIMULATIONS = 2 * MAX_CONVERGENCE_SIMULATIONS - MIN_CONVERGENCE_SIMULATIONS;
+
+    /**
+     * RAVE equivalence parameters compared by the RAVE benchmark, 0 is plain UCT
+     */
+    private static final double[] RAVE_EQUIVALENCES = {0, 25, 250, 1000};
+
+    /**
+     * Games played between two configurations of the search, the number of random moves played before the
+     * configurations take over and the number of simulations per move
+     */
+    private static final int MATCH_GAMES = 20;
+    private static final int MATCH_OPENING_PLIES = 2;
+    private static final int MATCH_SIMULATIONS = 5000;
+
+    /**
+     * Game phases measured by the random move benchmark, as the number of random moves played from an empty board
+     */
+    private static final int[] PHASE_PLIES = {0, 8, 16, 24};
+
+    /**
+     * Number of positions generated for each game phase and number of operations timed on each position
+     */
+    private static final int PHASE_POSITIONS = 100;
+    private static final int PHASE_OPERATIONS = 10000;
+
+    /**
+     * Number of moves played by the rollouts before they are truncated, compared by the truncation benchmark
+     */
+    private static final int[] TRUNCATION_PLIES = {Integer.MAX_VALUE, 12, 8, 4};
+
+    /**
+     * Time per move of the games played between truncated and full rollouts
+     */
+    private static final long TRUNCATION_MATCH_TIME = 100;
+
+    /**
+     * Newton iterations of the logistic regression fitting the evaluation to the results of rollouts
+     */
+    private static final int LOGISTIC_ITERATIONS = 25;
+
+    /**
+     * Number of positions of each game phase searched by the early stopping benchmark
+     */
+    private static final int EARLY_STOP_POSITIONS = 10;
+
+    /**
+     * Operations timed by the board benchmark
+     */
+    private static final String[] BOARD_OPERATIONS = {"Process+undo/s", "Make+unmake/s", "WinMove/s", "Clone/s"};
+
+    /**
+     * Last board copied by the board benchmark
+     */
+    private static Object copy;
+
+    /**
+     * Accumulates the results of the measured operations such that they are not optimized away
+     */
+    private static long sink;
+
+    /**
+     * Names of the searched configurations already ran once to warm up the JIT
+     */
+    private static final Set<String> warmedUp = new HashSet<>();
+
+    /**
+     * Progressive widening schedules compared by the widening benchmark as {coefficient, exponent}
+     */
+    private static final double[][] WIDENING_SCHEDULES = {{0, 0}, {4, 0.5}, {2, 0.5}, {1, 0.5}};
+
+    /**
+     * Benchmarks by the name used to run them
+     */
+    private static final Map<String, Runnable> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("threads", Benchmark::threadScaling);
+        BENCHMARKS.put("state", Benchmark::stateReconstruction);
+        BENCHMARKS.put("memory", Benchmark::memoryPerNode);
+        BENCHMARKS.put("transpositions", Benchmark::transpositionConvergence);
+        BENCHMARKS.put("widening", Benchmark::progressiveWidening);
+        BENCHMARKS.put("rave", Benchmark::raveConvergence);
+        BENCHMARKS.put("rollouts", Benchmark::rolloutKernel);
+        BENCHMARKS.put("random", Benchmark::randomMoves);
+        BENCHMARKS.put("seed", Benchmark::seededSearches);
+        BENCHMARKS.put("truncation", Benchmark::truncatedRollouts);
+        BENCHMARKS.put("earlystop", Benchmark::earlyStop);
+        BENCHMARKS.put("board", Benchmark::boardOperations);
+        BENCHMARKS.put("movegen", Benchmark::moveGeneration);
+    }
+
+
+    public static void main(String[] args) {
+
+        String name = args.length > 0 ? args[0] : "";
+        Runnable benchmark = BENCHMARKS.get(name);
+
+        if (benchmark == null) {
+            System.err.println("Unknown benchmark: " + name);
+            System.err.println("Available benchmarks: " + String.join(", ", BENCHMARKS.keySet()));
+            return;
+        }
+
+        benchmark.run();
+    }
+
+
+    /**
+     * Measures the number of simulations per second the parallel search runs with 1, 2, 4, 8 and 16 threads
+     * for each type of parallelism.
+     */
+    private static void threadScaling() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+        int[] threadCounts = {1, 2, 4, 8, 16};
+
+        MCTS.setVerbose(false);
+        MCTS.setMaxSimulations(Integer.MAX_VALUE);
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        for (MCTS.Parallelism parallelism : MCTS.Parallelism.values()) {
+            MCTS.setParallelism(parallelism);
+
+            System.out.println(parallelism + " parallelism");
+            System.out.println(String.format("%8s %12s %8s", "Threads", "Sims/s", "Speedup"));
+
+            double baseline = 0;
+            for (int threads : threadCounts) {
+                MCTS.setNumThreads(threads);
+                double simsPerSecond = runSearches(parallelism.toString(), positions, SEARCH_TIME);
+
+                if (threads == 1) {
+                    baseline = simsPerSecond;
+                }
+
+                System.out.println(String.format("%8d %12.0f %8.2f", threads, simsPerSecond, simsPerSecond / baseline));
+            }
+        }
+    }
+
+
+    /**
+     * Compares the number of simulations per second when the state of the selected node is obtained by applying the
+     * moves while descending the tree and when it is rebuilt by replaying the moves from the root.
+     */
+    private static void stateReconstruction() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setMaxSimulations(Integer.MAX_VALUE);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+
+        System.out.println(String.format("%8s %12s %14s %8s", "Plies", "Replay/s", "Incremental/s", "Speedup"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            List<PentagoBitBoard> position = positions.subList(i, i + 1);
+
+            MCTS.setIncrementalState(false);
+            double replay = runSearches("Replay", position, SEARCH_TIME);
+
+            MCTS.setIncrementalState(true);
+            double incremental = runSearches("Incremental", position, SEARCH_TIME);
+
+            System.out.println(String.format("%8d %12.0f %14.0f %8.2f", MID_GAME_PLIES[i], replay, incremental, incremental / replay));
+        }
+    }
+
+
+    /**
+     * Compares the memory used by each node of a tree made of UCTNode objects and of a tree stored in an arena.
+     */
+    private static void memoryPerNode() {
+
+        PentagoBitBoard position = midGamePositions().get(0);
+        List<Long> moves = position.getAllLegalNonSymmetricMoves();
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setMaxSimulations(MEMORY_SIMULATIONS);
+
+        // The object tree is kept by MCTS after the search such that it can be measured
+        MCTS.setTreeStorage(MCTS.TreeStorage.OBJECTS);
+        long usedBefore = usedMemory();
+        MCTS.getMCTSBestMove(Long.MAX_VALUE / 2, moves, (PentagoBitBoard) position.clone());
+        long objectBytes = usedMemory() - usedBefore;
+        int objectNodes = MCTS.getTreeSize();
+        MCTS.clearTree();
+
+        // Give the arena the capacity to hold as many nodes as the object tree
+        MCTS.setTreeStorage(MCTS.TreeStorage.ARENA);
+        MCTS.setArenaCapacity(objectNodes);
+        usedBefore = usedMemory();
+        MCTS.getMCTSBestMove(Long.MAX_VALUE / 2, moves, (PentagoBitBoard) position.clone());
+        long arenaBytes = usedMemory() - usedBefore;
+        int arenaNodes = MCTS.getTreeSize();
+
+        MCTS.setTreeStorage(MCTS.TreeStorage.OBJECTS);
+
+        System.out.println(String.format("%8s %10s %12s %10s", "Storage", "Nodes", "Bytes", "Bytes/node"));
+        System.out.println(String.format("%8s %10d %12d %10.1f", "Objects", objectNodes, objectBytes, objectBytes / (double) objectNodes));
+        System.out.println(String.format("%8s %10d %12d %10.1f", "Arena", arenaNodes, arenaBytes, arenaBytes / (double) arenaNodes));
+    }
+
+
+    /**
+     * Compares the number of simulations needed for the search to settle on its final move when every path gets its own
+     * nodes (tree) and when transpositions share their nodes (graph). A search converged at a budget if the searches
+     * with this budget and all larger budgets return the move found with the largest budget.
+     */
+    private static void transpositionConvergence() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        warmUp("Search", () -> searchRate(positions, SEARCH_TIME));
+
+        System.out.println(String.format("%8s %8s %12s %10s %10s", "Plies", "Search", "Converged", "Nodes", "Sims/s"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            PentagoBitBoard position = positions.get(i);
+
+            for (boolean transpositions : new boolean[] {false, true}) {
+                MCTS.setTranspositions(transpositions);
+
+                long startTime = System.currentTimeMillis();
+                int converged = convergedBudget(position);
+                long elapsed = System.currentTimeMillis() - startTime;
+
+                // The tree of the search with the largest budget is kept
+                int nodes = MCTS.getTreeSize();
+
+                System.out.println(String.format("%8d %8s %12d %10d %10.0f", MID_GAME_PLIES[i], transpositions ? "Graph" : "Tree",
+                        converged, nodes, CONVERGENCE_SIMULATIONS * 1000.0 / elapsed));
+            }
+        }
+
+        MCTS.setTranspositions(false);
+    }
+
+
+    /**
+     * Compares the number of simulations per second when the rollouts are played move by move on a PentagoBitBoard and
+     * when they are played by the allocation free kernel.
+     */
+    private static void rolloutKernel() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setMaxSimulations(Integer.MAX_VALUE);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+
+        System.out.println(String.format("%8s %12s %12s %8s", "Plies", "Board/s", "Kernel/s", "Speedup"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            List<PentagoBitBoard> position = positions.subList(i, i + 1);
+
+            MCTS.setRolloutKernel(false);
+            double board = runSearches("Board rollouts", position, SEARCH_TIME);
+
+            MCTS.setRolloutKernel(true);
+            double kernel = runSearches("Kernel rollouts", position, SEARCH_TIME);
+
+            System.out.println(String.format("%8d %12.0f %12.0f %8.2f", MID_GAME_PLIES[i], board, kernel, kernel / board));
+        }
+    }
+
+
+    /**
+     * Measures by game phase the number of random moves generated per second by rejection sampling of the empty
+     * coordinates and by selecting the k-th empty coordinate, and the number of playouts per second.
+     */
+    private static void randomMoves() {
+
+        List<List<PentagoBitBoard>> phases = phasePositions();
+        int playouts = PHASE_OPERATIONS / 10;
+
+        System.out.println(String.format("%8s %12s %12s %8s %12s", "Plies", "Rejection/s", "Select/s", "Speedup", "Playouts/s"));
+
+        for (int i = 0; i < phases.size(); i++) {
+            List<PentagoBitBoard> positions = phases.get(i);
+            long moves = positions.size() * (long) PHASE_OPERATIONS;
+
+            double rejection = measure(moves, () -> generateRandomMoves(positions, true));
+            double select = measure(moves, () -> generateRandomMoves(positions, false));
+            double playoutRate = measure(positions.size() * (long) playouts, () -> playPlayouts(positions, playouts));
+
+            System.out.println(String.format("%8d %12.0f %12.0f %8.2f %12.0f", PHASE_PLIES[i], rejection, select, select / rejection, playoutRate));
+        }
+    }
+
+
+    /**
+     * Generates PHASE_OPERATIONS random moves on each position
+     * @param positions The positions to generate moves for
+     * @param rejection true to draw random coordinates until one is empty, false to use getRandomMove
+     * @return The sum of the moves
+     */
+    private static long generateRandomMoves(List<PentagoBitBoard> positions, boolean rejection) {
+
+        FastRandom random = new FastRandom(POSITION_SEED);
+        long checksum = 0;
+
+        for (PentagoBitBoard position : positions) {
+            long availableSpots = position.getAllAvailibleSpots();
+
+            for (int i = 0; i < PHASE_OPERATIONS; i++) {
+                if (rejection) {
+                    long coord;
+                    do {
+                        coord = 1L << random.nextInt(36);
+                    } while ((coord & availableSpots) == 0);
+
+                    byte[] swap = PentagoBitBoard.QUAD_SWAPS[random.nextInt(PentagoBitBoard.QUAD_SWAPS.length)];
+                    checksum += PentagoBitMove.createBitMove(position.getTurnPlayer(), swap[0], swap[1], coord);
+                }
+                else {
+                    checksum += position.getRandomMove(random);
+                }
+            }
+        }
+
+        return checksum;
+    }
+
+
+    /**
+     * Measures by game phase the number of board operations per second: applying and reversing a move with the legality
+     * check (processMove, undoMove) and without it (makeMove, unmakeMove), looking for a win move and copying the board.
+     */
+    private static void boardOperations() {
+
+        List<List<PentagoBitBoard>> phases = phasePositions();
+
+        StringBuilder header = new StringBuilder(String.format("%8s", "Plies"));
+        for (String operation : BOARD_OPERATIONS) {
+            header.append(String.format(" %14s", operation));
+        }
+        System.out.println(header);
+
+        for (int i = 0; i < phases.size(); i++) {
+            List<PentagoBitBoard> positions = phases.get(i);
+
+            // Draw the moves before timing such that only the operations are measured
+            FastRandom random = new FastRandom(POSITION_SEED);
+            long[][] moves = new long[positions.size()][PHASE_OPERATIONS];
+            for (int p = 0; p < positions.size(); p++) {
+                for (int j = 0; j < PHASE_OPERATIONS; j++) {
+                    moves[p][j] = positions.get(p).getRandomMove(random);
+                }
+            }
+
+            StringBuilder row = new StringBuilder(String.format("%8d", PHASE_PLIES[i]));
+            for (int operation = 0; operation < BOARD_OPERATIONS.length; operation++) {
+                int timed = operation;
+                double rate = measure(positions.size() * (long) PHASE_OPERATIONS, () -> repeatBoardOperation(positions, moves, timed));
+                row.append(String.format(" %14.0f", rate));
+            }
+            System.out.println(row);
+        }
+    }
+
+
+    /**
+     * Measures by game phase the number of times per second the moves of a position are generated as a list of boxed
+     * moves (getAllLegalNonSymmetricMoves) and into a reused buffer (getNonSymmetricMoves).
+     */
+    private static void moveGeneration() {
+
+        List<List<PentagoBitBoard>> phases = phasePositions();
+        int generations = PHASE_OPERATIONS / 10;
+
+        System.out.println(String.format("%8s %12s %12s %8s", "Plies", "List/s", "Buffer/s", "Speedup"));
+
+        for (int i = 0; i < phases.size(); i++) {
+            List<PentagoBitBoard> positions = phases.get(i);
+            long operations = positions.size() * (long) generations;
+
+            double list = measure(operations, () -> generateMoves(positions, generations, true));
+            double buffer = measure(operations, () -> generateMoves(positions, generations, false));
+
+            System.out.println(String.format("%8d %12.0f %12.0f %8.2f", PHASE_PLIES[i], list, buffer, buffer / list));
+        }
+    }
+
+
+    /**
+     * Generates the moves of each position
+     * @param positions The positions to generate moves for
+     * @param generations Number of times the moves of each position are generated
+     * @param list true to use getAllLegalNonSymmetricMoves, false to use getNonSymmetricMoves
+     * @return The sum of the last move of each generation
+     */
+    private static long generateMoves(List<PentagoBitBoard> positions, int generations, boolean list) {
+
+        long[] moves = new long[PentagoBitBoard.MAX_MOVES];
+        long checksum = 0;
+
+        for (PentagoBitBoard position : positions) {
+            for (int i = 0; i < generations; i++) {
+                if (list) {
+                    List<Long> generated = position.getAllLegalNonSymmetricMoves();
+                    checksum += generated.get(generated.size() - 1);
+                }
+                else {
+                    int count = position.getNonSymmetricMoves(moves);
+                    checksum += moves[count - 1];
+                }
+            }
+        }
+
+        return checksum;
+    }
+
+
+    /**
+     * Repeats a board operation on each position
+     * @param positions The positions to operate on, they are left unchanged
+     * @param moves The moves used by the operation on each position
+     * @param operation Index of the operation in BOARD_OPERATIONS
+     * @return A sum depending on the result of every operation
+     */
+    private static long repeatBoardOperation(List<PentagoBitBoard> positions, long[][] moves, int operation) {
+
+        long checksum = 0;
+
+        for (int p = 0; p < positions.size(); p++) {
+            PentagoBitBoard position = positions.get(p);
+
+            for (long move : moves[p]) {
+                switch (operation) {
+                    case 0:
+                        position.processMove(move);
+                        checksum += position.getWinner();
+                        position.undoMove(move);
+                        break;
+                    case 1:
+                        position.makeMove(move);
+                        checksum += position.getWinner();
+                        position.unmakeMove();
+                        break;
+                    case 2:
+                        checksum += position.getWinMove(PentagoBitMove.getPlayer(move)) + 1;
+                        break;
+                    default:
+                        // Keep the copy reachable such that it is not optimized away
+                        copy = position.clone();
+                        checksum += copy.hashCode() + 1;
+                }
+            }
+        }
+
+        return checksum;
+    }
+
+
+    /**
+     * Runs the same sequence of searches limited by a number of simulations twice with the same seed and checks that
+     * both runs pick the same moves after the same number of simulations, then once more with another seed.
+     */
+    private static void seededSearches() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        MCTS.setMaxSimulations(MATCH_SIMULATIONS);
+
+        long[][] first = runSeededSearches(positions, POSITION_SEED);
+        long[][] second = runSeededSearches(positions, POSITION_SEED);
+        long[][] other = runSeededSearches(positions, POSITION_SEED + 1);
+
+        MCTS.clearSeed();
+
+        System.out.println(String.format("%8s %40s %12s %12s", "Plies", "Move", "Same seed", "Other seed"));
+
+        boolean repeatable = true;
+        for (int i = 0; i < positions.size(); i++) {
+            boolean same = Arrays.equals(first[i], second[i]);
+            repeatable &= same;
+
+            System.out.println(String.format("%8d %40s %12s %12s", MID_GAME_PLIES[i], PentagoBitMove.toPrettyString(first[i][0]),
+                    same ? "identical" : "differs", Arrays.equals(first[i], other[i]) ? "identical" : "differs"));
+        }
+
+        System.out.println(repeatable ? "Seeded searches are repeatable." : "Seeded searches are NOT repeatable.");
+    }
+
+
+    /**
+     * Seeds the search then searches each position
+     * @param positions The positions to search
+     * @param seed The seed of the search
+     * @return For each position, the move found followed by the number of simulations ran
+     */
+    private static long[][] runSeededSearches(List<PentagoBitBoard> positions, long seed) {
+
+        MCTS.setSeed(seed);
+
+        long[][] results = new long[positions.size()][];
+        for (int i = 0; i < positions.size(); i++) {
+            PentagoBitBoard position = positions.get(i);
+            long move = MCTS.getMCTSBestMove(Long.MAX_VALUE / 2, position.getAllLegalNonSymmetricMoves(), position);
+            results[i] = new long[] { move, MCTS.getLastSimulationCount() };
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Plays random games from each position with the rollout kernel
+     * @param positions The positions to play from
+     * @param playouts Number of games played from each position
+     * @return The sum of the winners
+     */
+    private static long playPlayouts(List<PentagoBitBoard> positions, int playouts) {
+
+        FastRandom random = new FastRandom(POSITION_SEED);
+        long checksum = 0;
+
+        for (PentagoBitBoard position : positions) {
+            for (int i = 0; i < playouts; i++) {
+                checksum += position.playout(null, random);
+            }
+        }
+
+        return checksum;
+    }
+
+
+    /**
+     * Searches positions of every game phase with and without the early stopping rule, and compares the time used and
+     * the move played. Two searches without the rule are also compared since the search does not always pick the same
+     * move.
+     */
+    private static void earlyStop() {
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        MCTS.setMaxSimulations(Integer.MAX_VALUE);
+
+        Random random = new Random(POSITION_SEED);
+        List<PentagoBitBoard> positions = new ArrayList<>();
+        for (int plies : PHASE_PLIES) {
+            for (int i = 0; i < EARLY_STOP_POSITIONS; i++) {
+                positions.add(randomPosition(plies, random));
+            }
+        }
+
+        warmUp("Search", () -> searchRate(positions.subList(0, EARLY_STOP_POSITIONS), SEARCH_TIME));
+
+        System.out.println(String.format("%8s %12s %12s %12s %12s", "Plies", "Full ms", "Early ms", "Full = full", "Full = early"));
+
+        for (int i = 0; i < PHASE_PLIES.length; i++) {
+            long fullTime = 0;
+            long earlyTime = 0;
+            int sameMoves = 0;
+            int repeatedMoves = 0;
+
+            for (PentagoBitBoard position : positions.subList(i * EARLY_STOP_POSITIONS, (i + 1) * EARLY_STOP_POSITIONS)) {
+                List<Long> moves = position.getAllLegalNonSymmetricMoves();
+
+                MCTS.setEarlyStop(false);
+                long startTime = System.currentTimeMillis();
+                long fullMove = MCTS.getMCTSBestMove(SEARCH_TIME, moves, (PentagoBitBoard) position.clone());
+                fullTime += System.currentTimeMillis() - startTime;
+
+                if (MCTS.getMCTSBestMove(SEARCH_TIME, moves, (PentagoBitBoard) position.clone()) == fullMove) {
+                    repeatedMoves++;
+                }
+
+                MCTS.setEarlyStop(true);
+                startTime = System.currentTimeMillis();
+                long earlyMove = MCTS.getMCTSBestMove(SEARCH_TIME, moves, (PentagoBitBoard) position.clone());
+                earlyTime += System.currentTimeMillis() - startTime;
+
+                if (fullMove == earlyMove) {
+                    sameMoves++;
+                }
+            }
+
+            System.out.println(String.format("%8d %12d %12d %9d/%d %9d/%d", PHASE_PLIES[i], fullTime / EARLY_STOP_POSITIONS,
+                    earlyTime / EARLY_STOP_POSITIONS, repeatedMoves, EARLY_STOP_POSITIONS, sameMoves, EARLY_STOP_POSITIONS));
+        }
+    }
+
+
+    /**
+     * Fits the logistic function mapping the static evaluation to the probability that the player to move wins
+     * (EVALUATION_SCALE and MOVER_ADVANTAGE of PentagoBitBoard) on the results of full rollouts, then
+     * compares the number of simulations per second by game phase for each truncation depth, and plays games between
+     * truncated and full rollouts with the same time per move.
+     */
+    private static void truncatedRollouts() {
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        MCTS.setMaxSimulations(Integer.MAX_VALUE);
+
+        Random random = new Random(POSITION_SEED);
+        FastRandom rolloutRandom = new FastRandom(POSITION_SEED);
+
+        // Positions of every phase for which the evaluation is used
+        List<PentagoBitBoard> quietPositions = new ArrayList<>();
+        for (int plies = 0; plies < PHASE_PLIES[PHASE_PLIES.length - 1]; plies += 2) {
+            for (int i = 0; i < PHASE_POSITIONS; i++) {
+                PentagoBitBoard position = randomPosition(plies, random);
+                if (position.isQuiet()) {
+                    quietPositions.add(position);
+                }
+            }
+        }
+
+        // Evaluation of each position for the player to move and score of the player in full rollouts, draws count half
+        int numPositions = quietPositions.size();
+        double[] evaluations = new double[numPositions];
+        double[] scores = new double[numPositions];
+        int playouts = PHASE_OPERATIONS / 100;
+
+        for (int p = 0; p < numPositions; p++) {
+            PentagoBitBoard position = quietPositions.get(p);
+            int player = position.getTurnPlayer();
+            double wins = 0;
+
+            for (int i = 0; i < playouts; i++) {
+                byte winner = position.playout(null, rolloutRandom);
+                wins += winner == player ? 1 : winner == PentagoBitBoard.DRAW ? 0.5 : 0;
+            }
+
+            evaluations[p] = position.evaluateBoard(player);
+            scores[p] = wins / playouts;
+        }
+
+        double[] fit = fitLogistic(evaluations, scores);
+        System.out.println(String.format("Fitted on %d quiet positions: EVALUATION_SCALE = %.1f, MOVER_ADVANTAGE = %.2f",
+                numPositions, 1 / fit[0], fit[1]));
+
+        // Mean squared error of the predicted probabilities against the scores of the rollouts. The scores are averages
+        // of a limited number of rollouts, their variance is part of every error.
+        double evaluationError = 0;
+        double fittedError = 0;
+        double constantError = 0;
+        double samplingVariance = 0;
+
+        for (int p = 0; p < numPositions; p++) {
+            double fitted = 1 / (1 + Math.exp(-(fit[0] * evaluations[p] + fit[1])));
+
+            evaluationError += Math.pow(quietPositions.get(p).getWinProbability() - scores[p], 2);
+            fittedError += Math.pow(fitted - scores[p], 2);
+            constantError += Math.pow(0.5 - scores[p], 2);
+            samplingVariance += scores[p] * (1 - scores[p]) / playouts;
+        }
+
+        System.out.println(String.format("Mean squared error: evaluation %.4f, fit %.4f, constant 0.5 %.4f, rollout sampling variance %.4f",
+                evaluationError / numPositions, fittedError / numPositions, constantError / numPositions, samplingVariance / numPositions));
+
+        // One position per game phase
+        List<PentagoBitBoard> positions = new ArrayList<>(PHASE_PLIES.length);
+        for (int plies : PHASE_PLIES) {
+            positions.add(randomPosition(plies, random));
+        }
+
+        System.out.println(String.format("%8s %10s %10s %8s", "Plies", "Cutoff", "Sims/s", "Speedup"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            List<PentagoBitBoard> position = positions.subList(i, i + 1);
+            double full = 0;
+
+            for (int cutoff : TRUNCATION_PLIES) {
+                String name = cutoff == Integer.MAX_VALUE ? "None" : String.valueOf(cutoff);
+
+                MCTS.setRolloutPlies(cutoff);
+                double simsPerSecond = runSearches("Cutoff " + name, position, SEARCH_TIME);
+
+                if (cutoff == Integer.MAX_VALUE) {
+                    full = simsPerSecond;
+                }
+
+                System.out.println(String.format("%8d %10s %10.0f %8.2f", PHASE_PLIES[i], name, simsPerSecond, simsPerSecond / full));
+            }
+        }
+
+        for (int cutoff : TRUNCATION_PLIES) {
+            if (cutoff == Integer.MAX_VALUE) {
+                continue;
+            }
+
+            int[] results = playMatch(TRUNCATION_MATCH_TIME, () -> MCTS.setRolloutPlies(cutoff), () -> MCTS.setRolloutPlies(Integer.MAX_VALUE));
+
+            System.out.println("Rollouts truncated after " + cutoff + " moves against full rollouts with " + TRUNCATION_MATCH_TIME
+                    + " ms per move: " + results[0] + " wins, " + results[1] + " losses, " + results[2] + " draws");
+        }
+
+        MCTS.setRolloutPlies(Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Fits a logistic regression of scores between 0 and 1 on a single variable by Newton's method, minimizing the
+     * cross entropy between the scores and sigmoid(slope * x + intercept)
+     * @param x The variable of each sample
+     * @param scores The score of each sample
+     * @return {slope, intercept}
+     */
+    private static double[] fitLogistic(double[] x, double[] scores) {
+
+        double slope = 0;
+        double intercept = 0;
+
+        for (int iteration = 0; iteration < LOGISTIC_ITERATIONS; iteration++) {
+            // Gradient and Hessian of the cross entropy
+            double gradientSlope = 0;
+            double gradientIntercept = 0;
+            double hessianSlope = 0;
+            double hessianCross = 0;
+            double hessianIntercept = 0;
+
+            for (int i = 0; i < x.length; i++) {
+                double p = 1 / (1 + Math.exp(-(slope * x[i] + intercept)));
+                double weight = p * (1 - p);
+
+                gradientSlope += (p - scores[i]) * x[i];
+                gradientIntercept += p - scores[i];
+                hessianSlope += weight * x[i] * x[i];
+                hessianCross += weight * x[i];
+                hessianIntercept += weight;
+            }
+
+            double determinant = hessianSlope * hessianIntercept - hessianCross * hessianCross;
+            if (determinant == 0) {
+                break;
+            }
+
+            slope -= (hessianIntercept * gradientSlope - hessianCross * gradientIntercept) / determinant;
+            intercept -= (hessianSlope * gradientIntercept - hessianCross * gradientSlope) / determinant;
+        }
+
+        return new double[] {slope, intercept};
+    }
+
+
+    /**
+     * Compares the number of simulations needed for the search to settle on its final move with and without RAVE for
+     * multiple equivalence parameters, then plays games between a search using RAVE and a plain UCT search with the same
+     * number of simulations per move.
+     */
+    private static void raveConvergence() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        warmUp("Search", () -> searchRate(positions, SEARCH_TIME));
+
+        System.out.println(String.format("%8s %12s %12s", "Plies", "Equivalence", "Converged"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            for (double equivalence : RAVE_EQUIVALENCES) {
+                MCTS.setRave(equivalence);
+                System.out.println(String.format("%8d %12.0f %12d", MID_GAME_PLIES[i], equivalence, convergedBudget(positions.get(i))));
+            }
+        }
+
+        double equivalence = RAVE_EQUIVALENCES[1];
+        MCTS.setMaxSimulations(MATCH_SIMULATIONS);
+
+        int[] results = playMatch(Long.MAX_VALUE / 2, () -> MCTS.setRave(equivalence), () -> MCTS.setRave(0));
+
+        System.out.println("RAVE (k = " + equivalence + ") against UCT with " + MATCH_SIMULATIONS + " simulations per move: "
+                + results[0] + " wins, " + results[1] + " losses, " + results[2] + " draws");
+
+        MCTS.setRave(0);
+    }
+
+
+    /**
+     * Searches a position with budgets from MIN_CONVERGENCE_SIMULATIONS to MAX_CONVERGENCE_SIMULATIONS, doubling the
+     * budget every time.
+     * @param position The position to search
+     * @return The smallest budget from which the best move no longer changes
+     */
+    private static int convergedBudget(PentagoBitBoard position) {
+
+        List<Long> bestMoves = new ArrayList<>();
+
+        for (int budget = MIN_CONVERGENCE_SIMULATIONS; budget <= MAX_CONVERGENCE_SIMULATIONS; budget *= 2) {
+            MCTS.setMaxSimulations(budget);
+            bestMoves.add(MCTS.getMCTSBestMove(Long.MAX_VALUE / 2, position.getAllLegalNonSymmetricMoves(), (PentagoBitBoard) position.clone()));
+        }
+
+        long finalMove = bestMoves.get(bestMoves.size() - 1);
+        int converged = bestMoves.size() - 1;
+        while (converged > 0 && bestMoves.get(converged - 1) == finalMove) {
+            converged--;
+        }
+
+        return MIN_CONVERGENCE_SIMULATIONS << converged;
+    }
+
+
+    /**
+     * Plays games between two configurations of the search. Each configuration plays first in half of the games. The
+     * games start from random positions such that they are not all identical.
+     * @param timeout Time allocated to each move
+     * @param configureA Applies the settings of the first configuration
+     * @param configureB Applies the settings of the second configuration
+     * @return The number of wins, losses and draws of the first configuration
+     */
+    private static int[] playMatch(long timeout, Runnable configureA, Runnable configureB) {
+
+        Random random = new Random(POSITION_SEED);
+        int[] results = new int[3];
+
+        for (int game = 0; game < MATCH_GAMES; game++) {
+            PentagoBitBoard board = randomPosition(MATCH_OPENING_PLIES, random);
+
+            // Player A plays white in even games
+            int playerA = game % 2;
+
+            while (!board.gameOver()) {
+                if (board.getTurnPlayer() == playerA) {
+                    configureA.run();
+                }
+                else {
+                    configureB.run();
+                }
+
+                board.processMove(MCTS.getMCTSBestMove(timeout, board.getAllLegalNonSymmetricMoves(), (PentagoBitBoard) board.clone()));
+            }
+
+            if (board.getWinner() == PentagoBitBoard.DRAW) {
+                results[2]++;
+            }
+            else if (board.getWinner() == playerA) {
+                results[0]++;
+            }
+            else {
+                results[1]++;
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Compares the number of nodes created and the number of simulations per second for a fixed number of simulations
+     * when every move of a node can be tried and with progressive widening schedules.
+     */
+    private static void progressiveWidening() {
+
+        List<PentagoBitBoard> positions = midGamePositions();
+
+        MCTS.setVerbose(false);
+        MCTS.setNumThreads(1);
+        MCTS.setTreeReuse(false);
+        MCTS.setMaxSimulations(MEMORY_SIMULATIONS);
+
+        System.out.println(String.format("%8s %12s %10s %10s", "Plies", "Schedule", "Nodes", "Sims/s"));
+
+        for (int i = 0; i < positions.size(); i++) {
+            List<PentagoBitBoard> position = positions.subList(i, i + 1);
+
+            for (double[] schedule : WIDENING_SCHEDULES) {
+                String name = schedule[0] == 0 ? "All moves" : String.format("%.0f*n^%.1f", schedule[0], schedule[1]);
+
+                MCTS.setProgressiveWidening(schedule[0], schedule[1]);
+                double simsPerSecond = runSearches(name, position, Long.MAX_VALUE / 2);
+
+                System.out.println(String.format("%8d %12s %10d %10.0f", MID_GAME_PLIES[i], name, MCTS.getTreeSize(), simsPerSecond));
+            }
+        }
+
+        MCTS.setProgressiveWidening(0, 0.5);
+    }
+
+
+    /**
+     * Measures the heap currently used after collecting garbage
+     * @return The used heap in bytes
+     */
+    private static long usedMemory() {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    /**
+     * Times a benchmarked operation. The body is ran once untimed before it is timed such that the JIT compiled it
+     * with the branches taken on the same inputs.
+     * @param operations Number of operations ran by the body
+     * @param body Runs the operations and returns a value depending on their results
+     * @return The number of operations per second
+     */
+    private static double measure(long operations, LongSupplier body) {
+
+        sink += body.getAsLong();
+
+        long startTime = System.nanoTime();
+        // Keep the result such that the operations are not optimized away
+        sink += body.getAsLong();
+        long elapsed = System.nanoTime() - startTime;
+
+        return operations * 1e9 / elapsed;
+    }
+
+
+    /**
+     * Runs a benchmarked search the first time its name is seen, such that it is compiled by the JIT before it is
+     * timed. Searches are too long to be warmed up before every measurement.
+     * @param name Name of the searched configuration
+     * @param body Runs the searches
+     */
+    private static void warmUp(String name, Runnable body) {
+        if (warmedUp.add(name)) {
+            body.run();
+        }
+    }
+
+
+    /**
+     * Runs a search on each position. The searches are ran once untimed the first time the name is measured to warm up
+     * the JIT.
+     * @param name Name of the searched configuration
+     * @param positions Positions to search
+     * @param timeout Time allocated to each search
+     * @return The average number of simulations ran per second
+     */
+    private static double runSearches(String name, List<PentagoBitBoard> positions, long timeout) {
+        warmUp(name, () -> searchRate(positions, timeout));
+        return searchRate(positions, timeout);
+    }
+
+
+    /**
+     * Runs a search on each position
+     * @param positions Positions to search
+     * @param timeout Time allocated to each search
+     * @return The average number of simulations ran per second
+     */
+    private static double searchRate(List<PentagoBitBoard> positions, long timeout) {
+
+        long simulations = 0;
+        long elapsed = 0;
+
+        for (PentagoBitBoard position : positions) {
+            List<Long> moves = position.getAllLegalNonSymmetricMoves();
+
+            long startTime = System.currentTimeMillis();
+            MCTS.getMCTSBestMove(timeout, moves, (PentagoBitBoard) position.clone());
+            elapsed += System.currentTimeMillis() - startTime;
+
+            simulations += MCTS.getLastSimulationCount();
+        }
+
+        return simulations * 1000.0 / elapsed;
+    }
+
+
+    /**
+     * Generates the positions of each game phase used by the benchmarks
+     * @return PHASE_POSITIONS positions for each entry of PHASE_PLIES
+     */
+    private static List<List<PentagoBitBoard>> phasePositions() {
+
+        Random random = new Random(POSITION_SEED);
+        List<List<PentagoBitBoard>> phases = new ArrayList<>(PHASE_PLIES.length);
+
+        for (int plies : PHASE_PLIES) {
+            List<PentagoBitBoard> positions = new ArrayList<>(PHASE_POSITIONS);
+            for (int i = 0; i < PHASE_POSITIONS; i++) {
+                positions.add(randomPosition(plies, random));
+            }
+            phases.add(positions);
+        }
+
+        return phases;
+    }
+
+
+    /**
+     * Generates the mid game positions used by the benchmarks
+     * @return One position for each entry of MID_GAME_PLIES
+     */
+    private static List<PentagoBitBoard> midGamePositions() {
+
+        Random random = new Random(POSITION_SEED);
+        List<PentagoBitBoard> positions = new ArrayList<>(MID_GAME_PLIES.length);
+
+        for (int plies : MID_GAME_PLIES) {
+            positions.add(randomPosition(plies, random));
+        }
+
+        return positions;
+    }
+
+
+    /**
+     * Generates a position where the game is not over by playing random moves from an empty board
+     * @param plies Number of moves to play
+     * @param random Random generator used to pick the moves
+     * @return The generated position
+     */
+    static PentagoBitBoard randomPosition(int plies, Random random) {
+
+        PentagoBitBoard position;
+        do {
+            position = new PentagoBitBoard();
+
+            for (int i = 0; i < plies && !position.gameOver(); i++) {
+                List<Long> moves = position.getAllLegalNonSymmetricMoves();
+                position.processMove(moves.get(random.nextInt(moves.size())));
+            }
+        } while (position.gameOver());
+
+        return position;
+    }
+
+}
@@ -0,0 +1,79 @@
+package pentago_agent;
+
+/**
+ * Small and fast pseudo random number generator (SplitMix64) used by the search.
+ * Each search thread owns its own generator such that no state is shared between threads, and a generator created
+ * with a seed always produces the same sequence such that searches can be reproduced.
+ * http://prng.di.unimi.it/splitmix64.c
+ */
+public final class FastRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Creates a generator with a seed that differs on every call
+     */
+    public FastRandom() {
+        this(System.nanoTime() ^ mix(Thread.currentThread().getId() * GOLDEN_GAMMA));
+    }
+
+    /**
+     * @param seed Seed of the sequence. Two generators with the same seed produce the same sequence.
+     */
+    public FastRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Creates a generator for one of multiple independent streams derived from the same seed
+     * @param seed Seed shared by all streams
+     * @param stream Index of the stream
+     * @return The generator of the stream
+     */
+    public static FastRandom forStream(long seed, long stream) {
+        return new FastRandom(mix(seed + mix(stream + 1) * GOLDEN_GAMMA));
+    }
+
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Draws a uniformly distributed integer with a multiplication instead of a division (Lemire's method). A division
+     * is only needed in the rare case where the draw has to be rejected to stay uniform.
+     * https://arxiv.org/abs/1805.10941
+     * @param bound Upper bound (exclusive), must be positive
+     * @return An integer between 0 (inclusive) and bound (exclusive)
+     */
+    public int nextInt(int bound) {
+
+        long product = (nextLong() >>> 32) * bound;
+        long low = product & 0xFFFFFFFFL;
+
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+
+            while (low < threshold) {
+                product = (nextLong() >>> 32) * bound;
+                low = product & 0xFFFFFFFFL;
+            }
+        }
+
+        return (int) (product >>> 32);
+    }
+
+    /**
+     * @return A uniformly distributed double between 0 (inclusive) and 1 (exclusive)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,10 +1,19 @@
 package pentago_agent.Montecarlo;
 
+import pentago_agent.FastRandom;
 import pentago_agent.PentagoBitBoard;
+import pentago_agent.PentagoBitMove;
 
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements all logic for the MCTS algorithm.
@@ -12,10 +21,186 @@ import java.util.List;
  * The default policy has been modified such that if a win move is available, it is played.
  * If not, then a random move is player. This has been made possible due to the fact that win moves can be
  * found in O(1) due to a clever implementation in the PentagoBitBoard class.
+ *
+ * The search can be run in parallel in three ways:
+ *   ROOT: each worker thread builds its own tree over the same set of root moves and the statistics of the root
+ *         children are merged once all workers are done.
+ *   TREE: all worker threads share a single tree. Virtual losses are used to spread the threads over different paths.
+ *   LEAF: a single thread searches the tree and runs a batch of rollouts from each selected leaf on a pool of threads.
+ *         The results of the batch are backpropagated together.
+ *
+ * The trees are kept between searches. As moves are played, their roots are moved down to the node of the move
+ * played such that the next search starts with the statistics gathered for that position.
+ *
+ * When pondering is enabled, the search keeps running in the background on the position reached after the agent's move
+ * while the opponent is thinking. Once the opponent's move is known, the subtree of that move is kept.
+ *
+ * The trees can either be made of UCTNode objects or be stored in a preallocated UCTArena. Arenas are always searched
+ * root parallel, without transpositions, RAVE, progressive widening, early stopping or the solver. They are not kept
+ * between searches and are not searched while pondering.
+ *
+ * When RAVE is enabled, the pieces placed during each simulation are credited to the all moves as first (AMAF)
+ * statistics of the sibling moves that place a piece on the same coordinate, which are blended into the UCT values.
+ *
+ * When transpositions are enabled, the nodes of a tree of UCTNode objects are kept in a TranspositionTable such that
+ * a position reached by different orders of moves is represented by a single node. The tree then becomes a directed
+ * acyclic graph and the statistics of a position are shared by all the paths leading to it.
+ *
+ * The rollouts can be truncated: after a set number of moves, a rollout stops at the first quiet position and its
+ * winner is drawn from the static evaluation of the board.
+ *
+ * The search also acts as a solver (MCTS-Solver). Positions that are won or where the player to move can win on their
+ * move are proven, and the proofs are propagated minimax style to the nodes above. Proven nodes are not searched any
+ * further, and the search stops as soon as the root is proven.
+ *
+ * Every worker owns a FastRandom generator. When a seed is set, the generators are derived from it such that a search
+ * limited by a number of simulations on a single thread can be reproduced.
  */
 public class MCTS {
 
-    private static UCTNode UCTRoot;
+    /**
+     * The ways the search can be spread over multiple threads
+     */
+    public enum Parallelism { ROOT, TREE, LEAF }
+
+    /**
+     * The ways the nodes of the trees can be stored
+     */
+    public enum TreeStorage { OBJECTS, ARENA }
+
+    /**
+     * Roots of the trees searched by the workers. Kept between searches to be reused.
+     */
+    private static UCTNode[] UCTRoots;
+
+    /**
+     * Transposition tables of the trees, in the same order as the roots. Null if transpositions are not shared.
+     */
+    private static TranspositionTable[] tables;
+
+    /**
+     * State of the board at the roots of the trees
+     */
+    private static PentagoBitBoard rootState;
+
+    private static boolean treeReuse = true;
+
+    /**
+     * If true, the moves of the selected path are applied to a board while descending the tree. Otherwise the state
+     * of the selected node is rebuilt by replaying the moves from the root.
+     */
+    private static boolean incrementalState = true;
+
+    private static boolean pondering = false;
+
+    private static boolean transpositions = false;
+
+    /**
+     * Maximum number of positions held by the transposition table of each tree
+     */
+    private static int transpositionTableSize = 1 << 19;
+
+    /**
+     * Workers running in the background while the opponent is thinking
+     */
+    private static Thread[] ponderWorkers;
+
+    /**
+     * Pool running the rollouts of the worker pondering in LEAF parallel mode
+     */
+    private static ExecutorService ponderPool;
+
+    /**
+     * Set to stop the workers before their deadline
+     */
+    private static volatile boolean stopRequested = false;
+
+    /**
+     * Set once the move to play is known before the deadline, such that the workers of every tree stop
+     */
+    private static volatile boolean searchStopped = false;
+
+    /**
+     * If true, the search stops as soon as the move with the most simulations can no longer be overtaken
+     */
+    private static boolean earlyStop = true;
+
+    /**
+     * Number of threads running the search.
+     */
+    private static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private static Parallelism parallelism = Parallelism.ROOT;
+
+    /**
+     * Number of rollouts ran from each leaf in LEAF parallel mode. 0 runs one rollout per thread.
+     */
+    private static int leafBatchSize = 0;
+
+    /**
+     * Progressive widening schedule. Nodes below the root visited n times can have ceil(coefficient * n^exponent)
+     * children. A coefficient of 0 lets every move be tried.
+     */
+    private static double wideningCoefficient = 0;
+    private static double wideningExponent = 0.5;
+
+    /**
+     * RAVE equivalence parameter: number of simulations of a node for which its own win rate and its AMAF win rate
+     * get the same weight. 0 disables RAVE.
+     */
+    private static double raveEquivalence = 0;
+
+    private static TreeStorage treeStorage = TreeStorage.OBJECTS;
+
+    /**
+     * Maximum number of nodes held by the arenas of a search, summed over all threads
+     */
+    private static int arenaCapacity = 4000000;
+
+    /**
+     * Arenas of the last search ran with the ARENA storage
+     */
+    private static UCTArena[] arenas;
+
+    /**
+     * Number of simulations a leaf needs before it is expanded. This bounds the size of the tree.
+     */
+    static final int EXPANSION_THRESHOLD = 32;
+
+    /**
+     * Maximum number of simulations (summed over all threads) ran for a single search
+     */
+    private static int maxSimulations = 250000;
+
+    /**
+     * Number of simulations ran during the last search
+     */
+    private static int lastSimulationCount;
+
+    /**
+     * If true, the rollouts are played by the allocation free kernel of PentagoBitBoard. Otherwise they are played
+     * move by move on the board.
+     */
+    private static boolean rolloutKernel = true;
+
+    /**
+     * Number of moves after which a rollout is stopped at the first quiet position and scored with the static
+     * evaluation of the board. Integer.MAX_VALUE plays the rollouts until the end of the game.
+     */
+    private static int rolloutPlies = Integer.MAX_VALUE;
+
+    private static boolean verbose = true;
+
+    /**
+     * If seeded, the random generators of the workers are derived from the seed such that searches can be reproduced
+     */
+    private static boolean seeded = false;
+    private static long seed;
+
+    /**
+     * Number of searches started since the seed was set, used to give every search different random numbers
+     */
+    private static long searchCount;
 
 
     /**
@@ -26,94 +211,912 @@ public class MCTS {
      * @return Best move to play according to the MCTS algorithm.
      */
     public static long getMCTSBestMove(long timeout, List<Long> moves, PentagoBitBoard boardState) {
+        return getMCTSBestMove(timeout, timeout, moves, boardState);
+    }
+
+
+    /**
+     * Finds the best move to play using the MCST algorithm. The search stops after the time allocated once the best
+     * move is stable, but is extended up to the maximum time while the best move keeps changing.
+     * @param timeout Time allocated to play move
+     * @param maxTimeout Maximum time the search can be extended to
+     * @param moves Moves to chose from
+     * @param boardState Current board state of the board
+     * @return Best move to play according to the MCTS algorithm.
+     */
+    public static long getMCTSBestMove(long timeout, long maxTimeout, List<Long> moves, PentagoBitBoard boardState) {
+
+        if (treeStorage == TreeStorage.ARENA) {
+            return getArenaBestMove(timeout, maxTimeout, moves, boardState);
+        }
+
+        long startTime = System.currentTimeMillis();
+        long softDeadline = startTime + timeout;
+        long deadline = startTime + Math.max(timeout, maxTimeout);
+
+        // Make sure no background search is modifying the trees
+        stopPondering();
+        arenas = null;
+        searchCount++;
+        searchStopped = false;
+
+        boolean sharedTree = parallelism == Parallelism.TREE && numThreads > 1;
+        boolean leafParallel = parallelism == Parallelism.LEAF && numThreads > 1;
+
+        UCTNode[] roots = prepareRoots(boardState, sharedTree || leafParallel);
+
+        // Expand the root of each tree with the option moves
+        int reusedSimulations = 0;
+        for (UCTNode root : roots) {
+            root.restrictChildren(moves);
+            reusedSimulations += root.getNumSims() / 2;
+        }
+
+        if (verbose && reusedSimulations > 0) {
+            System.out.println("Reusing " + reusedSimulations + " simulations from the previous search.");
+        }
+
+        // The simulation budget is split evenly between the trees
+        int maxSimsPerTree = Math.max(1, maxSimulations / roots.length);
+
+        // In LEAF parallel mode, the other threads only run rollouts
+        ExecutorService rolloutPool = leafParallel ? createRolloutPool(numThreads - 1) : null;
+        Thread[] workers = startWorkers(1, leafParallel ? 0 : numThreads - 1, roots, boardState, deadline, maxSimsPerTree, sharedTree, null);
+
+        // The calling thread acts as the first worker, it also decides when the search stops
+        SearchMonitor monitor = new SearchMonitor(roots, startTime, softDeadline, maxSimsPerTree * (long) roots.length, earlyStop);
+        SearchWorker mainWorker = createWorker(roots, 0, boardState, deadline, maxSimsPerTree, sharedTree, rolloutPool);
+        mainWorker.setMonitor(monitor);
+        mainWorker.run();
+
+        joinWorkers(workers);
+        if (rolloutPool != null) {
+            rolloutPool.shutdown();
+        }
+
+        lastSimulationCount = -reusedSimulations;
+        for (UCTNode root : roots) {
+            lastSimulationCount += root.getNumSims() / 2;
+        }
+
+        if (verbose && monitor.getBestMoveChanges() > 1) {
+            System.out.println("The best move changed " + (monitor.getBestMoveChanges() - 1) + " times during the search.");
+        }
+
+        return getBestMove(roots, startTime);
+    }
+
+
+    /**
+     * Finds the best move to play using the MCTS algorithm on trees stored in arenas. Each thread searches its own arena.
+     * The arenas do not track how stable the best move is, so the search runs until the maximum time.
+     * @param timeout Time allocated to play move
+     * @param maxTimeout Maximum time the search can be extended to
+     * @param moves Moves to chose from
+     * @param boardState Current board state of the board
+     * @return Best move to play according to the MCTS algorithm.
+     */
+    private static long getArenaBestMove(long timeout, long maxTimeout, List<Long> moves, PentagoBitBoard boardState) {
 
         long startTime = System.currentTimeMillis();
+        long deadline = startTime + Math.max(timeout, maxTimeout);
+        searchCount++;
+        searchStopped = false;
+
+        // Release the previous arenas before allocating new ones
+        arenas = null;
+        arenas = new UCTArena[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            arenas[i] = new UCTArena(arenaCapacity / numThreads, moves);
+        }
+
+        int maxSimsPerArena = Math.max(1, maxSimulations / numThreads);
+
+        Thread[] workers = new Thread[numThreads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            UCTArena workerArena = arenas[i + 1];
+            PentagoBitBoard workerState = (PentagoBitBoard) boardState.clone();
+            FastRandom workerRandom = createRandom(i + 1);
+
+            workers[i] = new Thread(() -> runArenaSearch(workerArena, workerState, deadline, maxSimsPerArena, workerRandom), "MCTS-worker-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        runArenaSearch(arenas[0], boardState, deadline, maxSimsPerArena, createRandom(0));
+
+        joinWorkers(workers);
+
+        // All arenas store the root children in the same order
+        int firstChild = arenas[0].getFirstChild(UCTArena.ROOT);
+        int childCount = arenas[0].getChildCount(UCTArena.ROOT);
+
+        int bestChild = 0;
+        double bestWinRate = -1;
+        lastSimulationCount = 0;
+
+        for (int i = 0; i < childCount; i++) {
+            long winScore = 0;
+            long numSims = 0;
+            for (UCTArena arena : arenas) {
+                winScore += arena.getWinScore(firstChild + i);
+                numSims += arena.getNumSims(firstChild + i);
+            }
+
+            lastSimulationCount += numSims / 2;
+
+            double winRate = numSims == 0 ? 0 : (double) winScore / numSims;
+            if (winRate > bestWinRate) {
+                bestWinRate = winRate;
+                bestChild = i;
+            }
+        }
+
+        if (verbose) {
+            System.out.println(lastSimulationCount + " simulations were ran on " + numThreads + " arena(s) holding " + getTreeSize() + " nodes in " + (System.currentTimeMillis() - startTime) + " ms.");
+            System.out.println("Returning best move with win rate: " + bestWinRate);
+        }
+
+        return arenas[0].getMove(firstChild + bestChild);
+    }
+
+
+    /**
+     * Runs simulations on an arena until the deadline is reached or enough simulations were ran.
+     * @param arena The arena to search
+     * @param boardState The state of the board at the root
+     * @param deadline Time at which the search must stop
+     * @param maxSims Maximum number of simulations to run
+     * @param random Random generator used only by this search
+     */
+    private static void runArenaSearch(UCTArena arena, PentagoBitBoard boardState, long deadline, int maxSims, FastRandom random) {
+
+        PentagoBitBoard searchState = (PentagoBitBoard) boardState.clone();
+        long[] moves = new long[PentagoBitBoard.MAX_MOVES];
+        long[] moveKeys = new long[PentagoBitBoard.MAX_MOVES];
+
+        while (System.currentTimeMillis() < deadline && arena.getNumSims(UCTArena.ROOT) / 2 < maxSims) {
+
+            searchState.copyFrom(boardState);
+
+            int node = arena.findPromisingNode(searchState);
+
+            // Only expand leaves that were visited enough times and while the arena has room for the children
+            if (!searchState.gameOver() && arena.getNumSims(node) >= 2 * EXPANSION_THRESHOLD) {
+                int numMoves = searchState.getUniqueMoves(moves, moveKeys);
+
+                if (numMoves > 0 && arena.expandNode(node, moves, numMoves)) {
+                    node = arena.selectRandomChild(node, random);
+                    searchState.makeMove(arena.getMove(node));
+                }
+            }
+
+            arena.backPropagate(runDefaultPolicy(searchState, null, random));
+        }
+    }
+
+
+    /**
+     * Gets the roots of the trees to search from a position. The trees of the previous search are reused if they were
+     * advanced to this position, otherwise new trees are created.
+     * @param boardState The state of the board at the root
+     * @param singleTree True if a single tree is searched, false for one tree per thread
+     * @return The roots of the trees to search
+     */
+    private static UCTNode[] prepareRoots(PentagoBitBoard boardState, boolean singleTree) {
+
+        int numTrees = singleTree ? 1 : numThreads;
+
+        if (!treeReuse || UCTRoots == null || UCTRoots.length != numTrees || (tables != null) != transpositions
+                || !boardState.equals(rootState)) {
+            UCTRoots = new UCTNode[numTrees];
+            for (int i = 0; i < numTrees; i++) {
+                UCTRoots[i] = new UCTNode(0, null);
+            }
+
+            // Release the previous tables before allocating new ones
+            tables = null;
+            if (transpositions) {
+                tables = new TranspositionTable[numTrees];
+                for (int i = 0; i < numTrees; i++) {
+                    tables[i] = new TranspositionTable(transpositionTableSize);
+                }
+            }
+        }
+
+        rootState = (PentagoBitBoard) boardState.clone();
+
+        return UCTRoots;
+    }
+
+
+    /**
+     * Starts worker threads that search the trees in the background
+     * @param firstWorker Index of the first worker to start
+     * @param count Number of workers to start
+     * @param roots Roots of the trees to search
+     * @param boardState The state of the board at the roots
+     * @param deadline Time at which the search must stop
+     * @param maxSimsPerTree Maximum number of simulations to run on each tree
+     * @param sharedTree True if all workers share a single tree
+     * @param rolloutPool Pool running batches of rollouts for the workers in LEAF parallel mode, null otherwise
+     * @return The started workers
+     */
+    private static Thread[] startWorkers(int firstWorker, int count, UCTNode[] roots, PentagoBitBoard boardState, long deadline, int maxSimsPerTree, boolean sharedTree, ExecutorService rolloutPool) {
+
+        Thread[] workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            PentagoBitBoard workerState = (PentagoBitBoard) boardState.clone();
+
+            SearchWorker worker = createWorker(roots, firstWorker + i, workerState, deadline, maxSimsPerTree, sharedTree, rolloutPool);
+
+            workers[i] = new Thread(worker, "MCTS-worker-" + (firstWorker + i));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        return workers;
+    }
+
+
+    /**
+     * Creates a worker searching one of the trees with the current settings
+     * @param roots Roots of the trees to search
+     * @param workerIndex Index of the worker. Worker i searches the tree roots[i % roots.length]
+     * @param boardState The state of the board at the roots. Must not be shared with other workers.
+     * @param deadline Time at which the search must stop
+     * @param maxSimsPerTree Maximum number of simulations to run on the tree
+     * @param sharedTree True if all workers share a single tree
+     * @param rolloutPool Pool running batches of rollouts for the worker in LEAF parallel mode, null otherwise
+     * @return The worker
+     */
+    private static SearchWorker createWorker(UCTNode[] roots, int workerIndex, PentagoBitBoard boardState, long deadline, int maxSimsPerTree, boolean sharedTree, ExecutorService rolloutPool) {
+
+        int tree = workerIndex % roots.length;
+
+        SearchWorker worker = new SearchWorker(roots[tree], boardState, deadline, maxSimsPerTree, sharedTree, incrementalState, table(tree), createRandom(workerIndex));
+
+        if (rolloutPool != null) {
+            worker.setLeafParallel(rolloutPool, getLeafBatchSize());
+        }
+
+        worker.setProgressiveWidening(wideningCoefficient, wideningExponent);
+        worker.setRave(raveEquivalence);
+
+        return worker;
+    }
+
+
+    /**
+     * Creates the random generator of a worker for the current search. If a seed is set, the generator only depends on
+     * the seed, the number of searches ran since the seed was set and the index of the worker.
+     * @param workerIndex Index of the worker
+     * @return The generator
+     */
+    private static FastRandom createRandom(int workerIndex) {
+
+        if (!seeded) {
+            return new FastRandom();
+        }
+
+        return FastRandom.forStream(seed, (searchCount << 16) | workerIndex);
+    }
+
+
+    /**
+     * Creates a pool of threads running the rollouts of the batches in LEAF parallel mode
+     * @param threads Number of threads in the pool
+     * @return The pool, it must be shut down once the search is done
+     */
+    private static ExecutorService createRolloutPool(int threads) {
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, rollouts -> {
+            Thread thread = new Thread(rollouts, "MCTS-rollout-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    private static int getLeafBatchSize() {
+        return leafBatchSize > 0 ? leafBatchSize : numThreads;
+    }
+
+
+    private static void joinWorkers(Thread[] workers) {
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Starts searching the position reached after the agent's move in the background while the opponent is thinking.
+     * Does nothing if pondering is disabled.
+     * @param boardState The state of the board after the agent's move
+     */
+    public static void startPondering(PentagoBitBoard boardState) {
+
+        // The result of pondering can only be used if the trees are reused
+        if (!pondering || !treeReuse || treeStorage == TreeStorage.ARENA || boardState.gameOver()) {
+            return;
+        }
+
+        stopPondering();
+        searchCount++;
+        searchStopped = false;
+
+        boolean sharedTree = parallelism == Parallelism.TREE && numThreads > 1;
+        boolean leafParallel = parallelism == Parallelism.LEAF && numThreads > 1;
+
+        UCTNode[] roots = prepareRoots(boardState, sharedTree || leafParallel);
+
+        // The opponent can play any move
+        for (UCTNode root : roots) {
+            if (!root.isExpanded()) {
+                root.expandNode(boardState.getAllLegalUniqueMoves());
+            }
+        }
 
-        // Crate the root of the UCT tree
-        UCTRoot = new UCTNode(0, null);
+        // The simulation budget bounds the size of the tree if the opponent takes a long time
+        int maxSimsPerTree = Math.max(1, maxSimulations / roots.length);
 
-        // Expand the root node with the option moves
-        UCTRoot.expandNode(moves);
+        if (leafParallel) {
+            ponderPool = createRolloutPool(numThreads - 1);
+            ponderWorkers = startWorkers(0, 1, roots, boardState, Long.MAX_VALUE, maxSimsPerTree, false, ponderPool);
+        }
+        else {
+            ponderWorkers = startWorkers(0, numThreads, roots, boardState, Long.MAX_VALUE, maxSimsPerTree, sharedTree, null);
+        }
+    }
 
-        while (System.currentTimeMillis() - startTime < timeout && UCTRoot.getNumSims() < 500000) {
 
-            // Find a promising node to expand
-            UCTNode promissingNode = findPromisingNode();
+    /**
+     * Stops the background search started by startPondering and waits for the workers to be done.
+     */
+    public static void stopPondering() {
 
-            // Expand the node and run the default policy
-            expandAndRunDefaultPolicy(promissingNode, boardState);
+        if (ponderWorkers == null) {
+            return;
+        }
+
+        stopRequested = true;
+        joinWorkers(ponderWorkers);
+        stopRequested = false;
+
+        ponderWorkers = null;
+
+        if (ponderPool != null) {
+            ponderPool.shutdown();
+            ponderPool = null;
+        }
+
+        if (verbose) {
+            int treeSimulations = 0;
+            for (UCTNode root : UCTRoots) {
+                treeSimulations += root.getNumSims() / 2;
+            }
+            System.out.println("Stopped pondering with " + treeSimulations + " simulations in the tree.");
         }
+    }
 
-        UCTNode bestNode = Collections.max(UCTRoot.getChildren(), Comparator.comparingDouble(UCTNode::getWinRate));
 
-        System.out.println(UCTRoot.getNumSims() + " simulations were ran in " + timeout + " ms.");
-        System.out.println("Returning best move with win rate: " + bestNode.getWinRate());
+    /**
+     * Gets the transposition table of a tree
+     * @param tree The index of the tree
+     * @return The table, null if transpositions are not shared
+     */
+    private static TranspositionTable table(int tree) {
+        return tables == null ? null : tables[tree];
+    }
 
-        return bestNode.getMove();
+
+    static boolean isStopRequested() {
+        return stopRequested || searchStopped;
     }
 
 
     /**
-     * Finds the best move to expand from the upper confidence tree
-     * @return The node to expand next.
+     * Stops the workers of the current search because the move to play is known
      */
-    private static UCTNode findPromisingNode() {
+    static void stopSearch() {
+        searchStopped = true;
+    }
+
+
+    /**
+     * Merges the statistics of the root children of all the trees built by the workers and picks the move with the
+     * highest win rate. A move proven to win is always picked, moves proven to lose are only picked if every move is a
+     * proven loss. The trees are left untouched such that they can be reused.
+     * @param roots Roots of the trees built by each worker
+     * @param startTime Time at which the search started
+     * @return The move with the highest win rate
+     */
+    private static long getBestMove(UCTNode[] roots, long startTime) {
+
+        // Summed win score and number of simulations of each move. The children of each tree can be in any order.
+        Map<Long, long[]> statistics = new HashMap<>();
+
+        // Moves proven to lose in any of the trees
+        Set<Long> provenLosses = new HashSet<>();
+
+        for (UCTNode root : roots) {
+            for (int i = 0; i < root.getChildCount(); i++) {
+                long move = root.getChildMove(i);
+                UCTNode child = root.getChildAt(i);
 
-        UCTNode promissingNode = UCTRoot;
+                // A move proven to win is played right away
+                if (child.getProvenWinner() == PentagoBitMove.getPlayer(move)) {
+                    if (verbose) {
+                        System.out.println("Returning a proven win found in " + (System.currentTimeMillis() - startTime) + " ms.");
+                    }
+                    return move;
+                }
+                else if (child.getProvenWinner() != PentagoBitBoard.NOBODY) {
+                    provenLosses.add(move);
+                }
 
-        while (promissingNode.hasChildren()) {
-            promissingNode = promissingNode.getChildMaxUCTValue();
+                long[] moveStatistics = statistics.computeIfAbsent(move, key -> new long[2]);
+                moveStatistics[0] += child.getWinScore();
+                moveStatistics[1] += child.getNumSims();
+            }
         }
 
-        return promissingNode;
+        // If not a single simulation was ran, fall back to the first move of the root
+        long bestMove = roots[0].getChildMove(0);
+        double bestWinRate = -1;
+        boolean bestIsLoss = true;
+
+        for (Map.Entry<Long, long[]> entry : statistics.entrySet()) {
+            long[] moveStatistics = entry.getValue();
+            double winRate = moveStatistics[1] == 0 ? 0 : (double) moveStatistics[0] / moveStatistics[1];
+            boolean isLoss = provenLosses.contains(entry.getKey());
+
+            // A proven loss is only played if every move is a proven loss
+            if ((bestIsLoss && !isLoss) || (isLoss == bestIsLoss && winRate > bestWinRate)) {
+                bestWinRate = winRate;
+                bestMove = entry.getKey();
+                bestIsLoss = isLoss;
+            }
+        }
+
+        if (verbose) {
+            System.out.println(lastSimulationCount + " simulations were ran on " + numThreads + " thread(s) (" + parallelism + " parallel) in " + (System.currentTimeMillis() - startTime) + " ms.");
+            System.out.println("Returning best move with win rate: " + bestWinRate);
+        }
+
+        return bestMove;
     }
 
 
     /**
-     * Expands the node in the UCT and runs the default policy from it.
-     * The winner of the simulation is backpropagated through the tree.
-     * Note: The default policy has been modified such that is a move that leads to a win is available, it is played
-     * @param node Node to expand
-     * @param rootState The state of the board at the root
+     * Moves the roots of the trees down to the node of a move that was played such that they can be reused by the next
+     * search. If the trees do not contain the move, they are discarded. The transposition tables are rebuilt from the
+     * new roots: the positions of the other subtrees can never be reached again since pieces are never removed.
+     * @param move The move that was played
+     * @param playedState The state of the board after the move was played
      */
-    private static void expandAndRunDefaultPolicy(UCTNode node, PentagoBitBoard rootState) {
+    public static void advanceRoot(long move, PentagoBitBoard playedState) {
+
+        stopPondering();
+
+        if (UCTRoots == null) {
+            return;
+        }
+
+        // The trees were already advanced to this position
+        if (rootState.equals(playedState)) {
+            return;
+        }
 
-        // Get the state of the node
-        PentagoBitBoard nodeState = node.getState(rootState);
+        PentagoBitBoard nextState = (PentagoBitBoard) rootState.clone();
+        if (!nextState.isLegalMove(move)) {
+            clearTree();
+            return;
+        }
+
+        nextState.processMove(move);
+        if (!nextState.equals(playedState)) {
+            clearTree();
+            return;
+        }
+
+        UCTNode[] nextRoots = new UCTNode[UCTRoots.length];
+        for (int i = 0; i < UCTRoots.length; i++) {
+            nextRoots[i] = UCTRoots[i].getChild(move, rootState);
+
+            // The move was never explored
+            if (nextRoots[i] == null) {
+                clearTree();
+                return;
+            }
+
+            nextRoots[i].setParent(null);
+        }
+
+        UCTRoots = nextRoots;
+        rootState = nextState;
+
+        if (tables != null) {
+            for (int i = 0; i < tables.length; i++) {
+                // Release the previous table before allocating the new one
+                tables[i] = null;
+                tables[i] = new TranspositionTable(transpositionTableSize);
+                addToTable(nextRoots[i], (PentagoBitBoard) nextState.clone(), tables[i]);
+            }
+        }
+    }
 
-        if (nodeState.gameOver()) {
-            // Get the moves that can be made from node
-            List<Long> moves = nodeState.getAllLegalNonSymmetricMoves();
 
-            if (moves.size() > 0) {
-                // Expand the node
-                node.expandNode(moves);
+    /**
+     * Adds the descendants of a node to a transposition table. A node already in the table is not visited again, its
+     * descendants were added with it.
+     * @param node The node
+     * @param state The state of the board at the node. The moves are undone before returning.
+     * @param table The table
+     */
+    private static void addToTable(UCTNode node, PentagoBitBoard state, TranspositionTable table) {
 
-                node = node.getRandomChild();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            UCTNode child = node.getChildAt(i);
+            long move = node.getChildMove(i);
+            long key = state.getChildKey(move);
 
-                // Apply the move of the child that was chosen
-                nodeState.processMove(node.getMove());
+            if (table.get(key) != null) {
+                continue;
             }
+
+            table.putIfAbsent(key, child);
+
+            state.makeMove(move);
+            addToTable(child, state, table);
+            state.unmakeMove();
+        }
+    }
+
+
+    /**
+     * Discards the trees kept between searches
+     */
+    public static void clearTree() {
+        stopPondering();
+        UCTRoots = null;
+        tables = null;
+        rootState = null;
+    }
+
+
+    /**
+     * Plays the game until the end using the default policy and records the coordinates where each player placed a piece.
+     * If a move that leads to a win is available, it is played otherwise a random move is played.
+     * If the rollouts are truncated, the game is stopped at the first quiet position after rolloutPlies moves and the
+     * winner is drawn from the static evaluation of that position.
+     * @param state The state to play from. The moves of the simulation may be applied to it.
+     * @param placements The coordinates of the pieces placed by each player are added to it, indexed by player. Can be
+     *                   null if they are not needed.
+     * @param random The random generator of the calling thread
+     * @return The winner of the simulation
+     */
+    static byte runDefaultPolicy(PentagoBitBoard state, long[] placements, FastRandom random) {
+
+        if (rolloutKernel) {
+            return state.playout(placements, random, rolloutPlies);
         }
 
-        while (!nodeState.gameOver()) {
+        int plies = 0;
+
+        while (!state.gameOver()) {
 
             // Check if there is a win move
-            long move = nodeState.getWinMove(nodeState.getTurnPlayer());
+            long move = state.getWinMove(state.getTurnPlayer());
+
+            // If not, play a random move
+            if (!state.isLegalMove(move)) {
+                if (plies >= rolloutPlies && state.isQuiet()) {
+                    return state.estimateWinner(random);
+                }
+
+                move = state.getRandomMove(random);
+            }
+
+            if (placements != null) {
+                placements[state.getTurnPlayer()] |= PentagoBitMove.getBitCoord(move);
+            }
+
+            state.makeMove(move);
+            plies++;
+        }
+
+        return state.getWinner();
+    }
+
+
+    /**
+     * Counts the nodes in the trees of the last search
+     * @return The number of nodes
+     */
+    public static int getTreeSize() {
+
+        int size = 0;
+
+        if (arenas != null) {
+            for (UCTArena arena : arenas) {
+                size += arena.size();
+            }
+        }
+        else if (UCTRoots != null) {
+            for (UCTNode root : UCTRoots) {
+                // Nodes shared by transpositions are only counted once
+                size += tables == null ? countNodes(root) : countNodes(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+            }
+        }
+
+        return size;
+    }
+
 
-            // If there is a win move, play it
-            if (nodeState.isLegalMove(move)) {
-                nodeState.processMove(move);
+    private static int countNodes(UCTNode node) {
+
+        int count = 1;
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            count += countNodes(node.getChildAt(i));
+        }
+
+        return count;
+    }
+
+
+    private static int countNodes(UCTNode node, Set<UCTNode> visited) {
+
+        if (!visited.add(node)) {
+            return 0;
+        }
+
+        int count = 1;
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            count += countNodes(node.getChildAt(i), visited);
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Sets the number of threads used to run the search
+     * @param threads Number of threads (at least 1)
+     */
+    public static void setNumThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The search needs at least one thread. Threads: " + threads);
+        }
+        numThreads = threads;
+    }
+
+    public static int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets if the trees are kept between searches
+     * @param reuse true to reuse the trees of the previous search when possible
+     */
+    public static void setTreeReuse(boolean reuse) {
+        treeReuse = reuse;
+        if (!reuse) {
+            clearTree();
+        }
+    }
+
+    /**
+     * Sets if the search keeps running while the opponent is thinking. Note that some tournaments require the agent to
+     * halt all its threads at the end of its turn.
+     * @param ponder true to search during the opponent's turn
+     */
+    public static void setPondering(boolean ponder) {
+        pondering = ponder;
+        if (!ponder) {
+            stopPondering();
+        }
+    }
+
+    /**
+     * Sets if positions reached by different orders of moves share a single node
+     * @param share true to keep the nodes in a transposition table
+     */
+    public static void setTranspositions(boolean share) {
+        if (share && treeStorage == TreeStorage.ARENA) {
+            throw new IllegalStateException("Transpositions cannot be shared by trees stored in arenas.");
+        }
+        transpositions = share;
+    }
+
+    /**
+     * Sets the maximum number of positions held by the transposition table of each tree. Every position uses about
+     * 16 bytes in the table on top of its node.
+     * @param size Maximum number of positions
+     */
+    public static void setTranspositionTableSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The transposition table needs to hold at least one position. Size: " + size);
+        }
+        transpositionTableSize = size;
+    }
+
+    /**
+     * Sets how the state of the selected node is obtained on each simulation
+     * @param incremental true to apply the moves while descending the tree, false to replay them from the root. Ignored
+     *                    when transpositions are shared.
+     */
+    public static void setIncrementalState(boolean incremental) {
+        incrementalState = incremental;
+    }
+
+    /**
+     * Sets how the nodes of the trees are stored. The ARENA storage cannot be selected while the search is TREE or
+     * LEAF parallel, or while transpositions, RAVE or progressive widening are enabled. It also ignores these settings:
+     *   tree reuse and pondering: the arenas are allocated for every search and the previous trees are discarded.
+     *   early stop: the search runs until the maximum time or number of simulations.
+     *   incremental state: the moves are always applied while descending the arenas.
+     * The arenas do not prove positions either.
+     * @param storage OBJECTS for a tree of UCTNode objects, ARENA for trees stored in arrays of primitives
+     */
+    public static void setTreeStorage(TreeStorage storage) {
+        if (storage == TreeStorage.ARENA) {
+            if (parallelism != Parallelism.ROOT) {
+                throw new IllegalStateException("Arenas can only be searched root parallel. Parallelism: " + parallelism);
             }
-            else {
-                // If not, play a random move
-                nodeState.processMove(nodeState.getRandomMove());
+            if (transpositions || raveEquivalence > 0 || wideningCoefficient > 0) {
+                throw new IllegalStateException("Arenas do not support transpositions, RAVE or progressive widening.");
             }
 
+            // The object trees cannot be advanced while the arenas are used
+            clearTree();
+        }
+        treeStorage = storage;
+    }
+
+    /**
+     * Sets the maximum number of nodes the arenas of a search can hold, summed over all threads.
+     * The arenas use UCTArena.BYTES_PER_NODE bytes for every node.
+     * @param capacity Maximum number of nodes
+     */
+    public static void setArenaCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The arenas need to hold at least one node. Capacity: " + capacity);
+        }
+        arenaCapacity = capacity;
+    }
+
+    /**
+     * Sets how the search is spread over multiple threads
+     * @param parallelism ROOT for one tree per thread, TREE for a single tree shared by all threads, LEAF for a single
+     *                    tree whose rollouts are ran in batches by all threads
+     */
+    public static void setParallelism(Parallelism parallelism) {
+        if (parallelism != Parallelism.ROOT && treeStorage == TreeStorage.ARENA) {
+            throw new IllegalStateException("Arenas can only be searched root parallel. Parallelism: " + parallelism);
+        }
+        MCTS.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the progressive widening schedule. The nodes below the root visited n times can have
+     * ceil(coefficient * n^exponent) children, new moves are only tried once the node was visited enough.
+     * @param coefficient Coefficient of the schedule, 0 to let every move be tried
+     * @param exponent Exponent of the schedule, between 0 and 1
+     */
+    public static void setProgressiveWidening(double coefficient, double exponent) {
+        if (coefficient < 0 || exponent < 0 || exponent > 1) {
+            throw new IllegalArgumentException("Invalid progressive widening schedule. Coefficient: " + coefficient + " Exponent: " + exponent);
+        }
+        if (coefficient > 0 && treeStorage == TreeStorage.ARENA) {
+            throw new IllegalStateException("Progressive widening is not supported by trees stored in arenas.");
+        }
+        wideningCoefficient = coefficient;
+        wideningExponent = exponent;
+    }
+
+    /**
+     * Sets how much the AMAF statistics are trusted. The UCT value of a node uses the win rate
+     * (1 - b) * winRate + b * amafWinRate with b = sqrt(k / (3n + k)), where n is the number of simulations of the node.
+     * @param equivalence The equivalence parameter k, 0 to disable RAVE
+     */
+    public static void setRave(double equivalence) {
+        if (equivalence < 0) {
+            throw new IllegalArgumentException("The RAVE equivalence parameter cannot be negative. Equivalence: " + equivalence);
+        }
+        if (equivalence > 0 && treeStorage == TreeStorage.ARENA) {
+            throw new IllegalStateException("RAVE is not supported by trees stored in arenas.");
+        }
+        raveEquivalence = equivalence;
+    }
+
+    /**
+     * Sets the number of rollouts ran from each leaf in LEAF parallel mode
+     * @param rollouts Number of rollouts, 0 to run one rollout per thread
+     */
+    public static void setLeafBatchSize(int rollouts) {
+        if (rollouts < 0) {
+            throw new IllegalArgumentException("The batch size cannot be negative. Rollouts: " + rollouts);
+        }
+        leafBatchSize = rollouts;
+    }
+
+    /**
+     * Sets the maximum number of simulations ran for a single search, summed over all threads
+     * @param simulations Maximum number of simulations
+     */
+    public static void setMaxSimulations(int simulations) {
+        if (simulations < 1) {
+            throw new IllegalArgumentException("The search needs to run at least one simulation. Simulations: " + simulations);
+        }
+        maxSimulations = simulations;
+    }
+
+    /**
+     * Sets how the rollouts are played
+     * @param kernel true to use the allocation free kernel, false to play the moves on the board
+     */
+    public static void setRolloutKernel(boolean kernel) {
+        rolloutKernel = kernel;
+    }
+
+    /**
+     * Sets if the search stops before its deadline once the move with the most simulations can no longer be overtaken
+     * by another move in the time left
+     * @param stop true to stop early
+     */
+    public static void setEarlyStop(boolean stop) {
+        earlyStop = stop;
+    }
+
+    /**
+     * Truncates the rollouts. Once a rollout played the given number of moves, it is stopped at the first position
+     * where neither player can win on their next move, and the winner is drawn with the win probability given by the
+     * static evaluation of the board.
+     * @param plies Number of moves played before the rollouts can be stopped, Integer.MAX_VALUE to play the rollouts
+     *              until the end of the game
+     */
+    public static void setRolloutPlies(int plies) {
+        if (plies < 0) {
+            throw new IllegalArgumentException("The number of moves played by the rollouts cannot be negative. Plies: " + plies);
         }
+        rolloutPlies = plies;
+    }
 
-        node.backPropagate(nodeState.getWinner());
+    /**
+     * Seeds the random generators of the search. Searches limited by a number of simulations on a single thread are
+     * then repeatable bit for bit given the same sequence of calls. Searches limited by time or ran on multiple threads
+     * depend on the timing of the threads.
+     * @param seed The seed
+     */
+    public static void setSeed(long seed) {
+        MCTS.seed = seed;
+        MCTS.seeded = true;
+        MCTS.searchCount = 0;
+    }
+
+    /**
+     * Seeds the random generators of each search differently on every run
+     */
+    public static void clearSeed() {
+        MCTS.seeded = false;
+    }
+
+    public static int getLastSimulationCount() {
+        return lastSimulationCount;
+    }
 
+    public static void setVerbose(boolean verbose) {
+        MCTS.verbose = verbose;
     }
 
 }
@@ -0,0 +1,144 @@
+package pentago_agent.Montecarlo;
+
+import pentago_agent.PentagoBitBoard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when a search stops before its hard deadline. It is checked periodically by the worker of the calling thread.
+ * The search stops:
+ *   - as soon as the root move with the most simulations can no longer be overtaken before the soft deadline, if early
+ *     stopping is enabled.
+ *   - after the soft deadline, once the root move with the most simulations has not changed for a while. As long as
+ *     the best move keeps changing, the search is extended up to its hard deadline.
+ */
+class SearchMonitor {
+
+    /**
+     * Past the soft deadline, the best move must have been the same for this fraction of the search time to stop
+     */
+    private static final double STABLE_FRACTION = 0.25;
+
+    private final UCTNode[] roots;
+    private final long startTime;
+    private final long softDeadline;
+    private final long maxSimulations;
+    private final boolean earlyStop;
+
+    /**
+     * Number of simulations in the trees when the search started
+     */
+    private final long startSimulations;
+
+    /**
+     * Root move with the most simulations at the last check and the time at which it became the best move
+     */
+    private long bestMove;
+    private long bestMoveTime;
+    private int bestMoveChanges;
+
+    /**
+     * @param roots Roots of every tree of the search
+     * @param startTime Time at which the search started
+     * @param softDeadline Time after which the search stops once the best move is stable
+     * @param maxSimulations Maximum number of simulations of the search, summed over all trees
+     * @param earlyStop True to stop as soon as the best move can no longer be overtaken
+     */
+    SearchMonitor(UCTNode[] roots, long startTime, long softDeadline, long maxSimulations, boolean earlyStop) {
+        this.roots = roots;
+        this.startTime = startTime;
+        this.softDeadline = softDeadline;
+        this.maxSimulations = maxSimulations;
+        this.earlyStop = earlyStop;
+        this.bestMoveTime = startTime;
+
+        long simulations = 0;
+        for (UCTNode root : roots) {
+            simulations += root.getNumSims() / 2;
+        }
+        this.startSimulations = simulations;
+    }
+
+    /**
+     * Checks if the search can stop. The move with the most simulations is only played right away if it also has the
+     * highest win rate. The number of simulations the search can still run is estimated from the rate of the
+     * simulations ran so far.
+     * @return true if the search can stop
+     */
+    boolean shouldStop() {
+
+        // Summed win score and number of simulations of each move
+        Map<Long, long[]> statistics = new HashMap<>();
+        long simulations = -startSimulations;
+
+        for (UCTNode root : roots) {
+            simulations += root.getNumSims() / 2;
+
+            for (int i = 0; i < root.getChildCount(); i++) {
+                UCTNode child = root.getChildAt(i);
+
+                // Proven losses are never played
+                if (child.getProvenWinner() != PentagoBitBoard.NOBODY) {
+                    continue;
+                }
+
+                long[] moveStatistics = statistics.computeIfAbsent(root.getChildMove(i), move -> new long[2]);
+                moveStatistics[0] += child.getWinScore();
+                moveStatistics[1] += child.getNumSims();
+            }
+        }
+
+        long leaderSims = 0;
+        long secondSims = 0;
+        long leader = 0;
+        long bestWinRateMove = 0;
+        double bestWinRate = -1;
+
+        for (Map.Entry<Long, long[]> entry : statistics.entrySet()) {
+            long[] moveStatistics = entry.getValue();
+            double winRate = moveStatistics[1] == 0 ? 0 : (double) moveStatistics[0] / moveStatistics[1];
+
+            if (moveStatistics[1] > leaderSims) {
+                secondSims = leaderSims;
+                leaderSims = moveStatistics[1];
+                leader = entry.getKey();
+            }
+            else if (moveStatistics[1] > secondSims) {
+                secondSims = moveStatistics[1];
+            }
+
+            if (winRate > bestWinRate) {
+                bestWinRate = winRate;
+                bestWinRateMove = entry.getKey();
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (leader != bestMove) {
+            bestMove = leader;
+            bestMoveTime = now;
+            bestMoveChanges++;
+        }
+
+        if (earlyStop && leaderSims > 0 && leader == bestWinRateMove) {
+            double rate = simulations / (double) Math.max(1, now - startTime);
+            double remaining = Math.min(rate * (softDeadline - now), maxSimulations - simulations);
+
+            // The number of simulations of the nodes are incremented by 2 for every simulation
+            if ((leaderSims - secondSims) / 2.0 > remaining) {
+                return true;
+            }
+        }
+
+        return now >= softDeadline && now - bestMoveTime >= STABLE_FRACTION * (now - startTime);
+    }
+
+    /**
+     * @return The number of times the root move with the most simulations changed during the search
+     */
+    int getBestMoveChanges() {
+        return bestMoveChanges;
+    }
+}
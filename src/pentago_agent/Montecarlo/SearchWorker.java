@@ -0,0 +1,500 @@
+package pentago_agent.Montecarlo;
+
+import pentago_agent.FastRandom;
+import pentago_agent.PentagoBitBoard;
+import pentago_agent.PentagoBitMove;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static pentago_agent.PentagoBitBoard.DRAW;
+import static pentago_agent.PentagoBitBoard.NOBODY;
+
+/**
+ * Runs the simulations of one search thread on a tree of UCTNode objects.
+ * The board and the path buffer used by the simulations are kept by the worker such that they are reused.
+ */
+class SearchWorker implements Runnable {
+
+    /**
+     * A path contains at most the root and one node for each move of the game
+     */
+    private static final int MAX_PATH_LENGTH = 37;
+
+    /**
+     * Number of simulations between two checks of the search monitor
+     */
+    private static final int MONITOR_INTERVAL = 256;
+
+    private final UCTNode root;
+    private final PentagoBitBoard rootState;
+    private final long deadline;
+    private final int maxSims;
+
+    /**
+     * True if the tree is shared with other threads and virtual losses should be used
+     */
+    private final boolean virtualLoss;
+
+    /**
+     * If true, the moves of the selected path are applied to a board while descending the tree. Otherwise the state
+     * of the selected node is rebuilt by replaying the moves from the root.
+     */
+    private final boolean incrementalState;
+
+    /**
+     * Table of the nodes of the tree by position. Null if transpositions are not shared.
+     */
+    private final TranspositionTable table;
+
+    private final FastRandom random;
+
+    /**
+     * Board on which the moves of each simulation are played
+     */
+    private PentagoBitBoard searchState;
+
+    /**
+     * Nodes selected during the current simulation, starting at the root
+     */
+    private final UCTNode[] path = new UCTNode[MAX_PATH_LENGTH];
+    private final long[] pathMoves = new long[MAX_PATH_LENGTH];
+    private int pathLength;
+
+    /**
+     * RAVE equivalence parameter, 0 if the AMAF statistics are not used
+     */
+    private double raveEquivalence = 0;
+
+    /**
+     * Coordinates where each player placed a piece during the current simulation, indexed by player
+     */
+    private final long[] placements = new long[2];
+
+    /**
+     * Buffers receiving the moves of the node expanded and the keys sorted to remove the moves leading to the same
+     * position
+     */
+    private final long[] moves = new long[PentagoBitBoard.MAX_MOVES];
+    private final long[] moveKeys = new long[PentagoBitBoard.MAX_MOVES];
+
+    /**
+     * Pool running the rollouts of a batch in leaf parallel mode. Null if a single rollout is ran from each leaf.
+     */
+    private ExecutorService rolloutPool;
+
+    /**
+     * Number of rollouts ran from each leaf in leaf parallel mode
+     */
+    private int batchSize = 1;
+
+    /**
+     * Progressive widening schedule. A coefficient of 0 allows every move of a node to be tried.
+     */
+    private double wideningCoefficient = 0;
+    private double wideningExponent;
+
+    /**
+     * Decides when the search stops before the deadline. Null if the worker runs until the deadline.
+     */
+    private SearchMonitor monitor;
+
+    /**
+     * Number of rollouts of the current batch won by each player
+     */
+    private final int[] batchWins = new int[2];
+    private int batchDraws;
+
+    /**
+     * @param root Root of the tree to search
+     * @param rootState The state of the board at the root
+     * @param deadline Time at which the search must stop
+     * @param maxSims Maximum number of simulations to run on this tree
+     * @param virtualLoss True if the tree is shared with other threads
+     * @param incrementalState True to apply the moves while descending the tree
+     * @param table Table used to share the nodes of transpositions, null to search a plain tree
+     * @param random Random generator used only by this worker
+     */
+    SearchWorker(UCTNode root, PentagoBitBoard rootState, long deadline, int maxSims, boolean virtualLoss, boolean incrementalState, TranspositionTable table, FastRandom random) {
+        this.root = root;
+        this.rootState = rootState;
+        this.deadline = deadline;
+        this.maxSims = maxSims;
+        this.virtualLoss = virtualLoss;
+        // The parents of a node are ambiguous when transpositions are shared, so the moves cannot be replayed
+        this.incrementalState = incrementalState || table != null;
+        this.table = table;
+        this.random = random;
+        this.searchState = (PentagoBitBoard) rootState.clone();
+    }
+
+    /**
+     * Runs a batch of rollouts from each selected leaf instead of a single one. The rollouts of a batch are spread over
+     * the pool and the calling thread, and their results are backpropagated together.
+     * @param pool Pool running the rollouts
+     * @param rollouts Number of rollouts ran from each leaf
+     */
+    void setLeafParallel(ExecutorService pool, int rollouts) {
+        this.rolloutPool = pool;
+        this.batchSize = rollouts;
+    }
+
+    /**
+     * Limits the number of children of the nodes below the root to ceil(coefficient * n^exponent), where n is the
+     * number of times the node was visited.
+     * @param coefficient Coefficient of the schedule, 0 to disable progressive widening
+     * @param exponent Exponent of the schedule
+     */
+    void setProgressiveWidening(double coefficient, double exponent) {
+        this.wideningCoefficient = coefficient;
+        this.wideningExponent = exponent;
+    }
+
+    /**
+     * Makes this worker check periodically if the search can stop, in which case the search of every worker is stopped
+     * @param monitor The monitor of the search
+     */
+    void setMonitor(SearchMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @param equivalence The RAVE equivalence parameter, 0 to ignore the AMAF statistics
+     */
+    void setRave(double equivalence) {
+        this.raveEquivalence = equivalence;
+    }
+
+    /**
+     * Runs simulations until the deadline is reached, enough simulations were ran or the search is stopped.
+     */
+    @Override
+    public void run() {
+
+        // Note that numSims is incremented by 2 for every simulation
+        long targetSims = root.getNumSims() / 2 + (long) maxSims;
+        int simulations = 0;
+
+        while (!MCTS.isStopRequested() && System.currentTimeMillis() < deadline && root.getNumSims() / 2 < targetSims) {
+
+            // The result of the game is known, there is nothing left to search
+            if (root.getProvenWinner() != NOBODY) {
+                MCTS.stopSearch();
+                break;
+            }
+
+
+            UCTNode promissingNode;
+
+            if (incrementalState) {
+                // Discard the moves of the last simulation
+                searchState.copyFrom(rootState);
+
+                // Find a promising node to expand, the moves leading to it are applied to the search state
+                promissingNode = findPromisingNode(searchState);
+            }
+            else {
+                promissingNode = findPromisingNode(null);
+
+                // Replay the moves leading to the node from the root
+                searchState = promissingNode.getState(rootState);
+            }
+
+            // Expand the node and run the default policy
+            expandAndRunDefaultPolicy(promissingNode, searchState);
+
+            if (monitor != null && ++simulations % MONITOR_INTERVAL == 0 && monitor.shouldStop()) {
+                MCTS.stopSearch();
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Finds the best move to expand from the upper confidence tree. The nodes selected are recorded in the path.
+     * The descent stops at proven nodes since their result is known.
+     * @param state The state of the board at the root. The moves of the selected path are applied to it. Can be null
+     *              if the state is not needed.
+     * @return The node to expand next.
+     */
+    private UCTNode findPromisingNode(PentagoBitBoard state) {
+
+        UCTNode promissingNode = root;
+        pathLength = 0;
+        addToPath(promissingNode, 0);
+
+        while (promissingNode.isExpanded() && promissingNode.getProvenWinner() == NOBODY) {
+            int childIndex = selectChild(promissingNode, state);
+
+            long move = promissingNode.getChildMove(childIndex);
+
+            if (state != null) {
+                state.makeMove(move);
+            }
+
+            promissingNode = promissingNode.getChildAt(childIndex);
+            addToPath(promissingNode, move);
+        }
+
+        return promissingNode;
+    }
+
+
+    /**
+     * Expands the node in the UCT and runs the default policy from it.
+     * The winner of the simulation is backpropagated through the nodes of the path.
+     * Note: The default policy has been modified such that is a move that leads to a win is available, it is played
+     * @param node Node to expand
+     * @param nodeState The state of the board at the node. The moves of the simulation are applied to it.
+     */
+    private void expandAndRunDefaultPolicy(UCTNode node, PentagoBitBoard nodeState) {
+
+        // Only expand leaves that were visited enough times to keep the tree small
+        if (!nodeState.gameOver() && node.getProvenWinner() == NOBODY && node.getNumSims() >= 2 * MCTS.EXPANSION_THRESHOLD) {
+            // Get the moves that can be made from node
+            int numMoves = nodeState.getUniqueMoves(moves, moveKeys);
+
+            if (numMoves > 0) {
+                // Expand the node. If another thread expanded it first, its moves are used.
+                node.expandNode(moves, numMoves);
+
+                int childIndex = selectChild(node, nodeState);
+
+                // Apply the move of the child that was chosen
+                long move = node.getChildMove(childIndex);
+                nodeState.makeMove(move);
+                addToPath(node.getChildAt(childIndex), move);
+            }
+        }
+
+        UCTNode leaf = path[pathLength - 1];
+
+        // A proven leaf needs no rollout, its result is backpropagated as is
+        if (leaf.getProvenWinner() != NOBODY || solve(leaf, nodeState)) {
+            propagateProof();
+            updatePath(leaf.getProvenWinner());
+            return;
+        }
+
+        // The pieces placed during the rollout are only recorded for RAVE
+        long[] rolloutPlacements = null;
+        if (raveEquivalence > 0) {
+            placements[0] = 0;
+            placements[1] = 0;
+            rolloutPlacements = placements;
+        }
+
+        byte winner;
+
+        if (rolloutPool != null) {
+            winner = runDefaultPolicyBatch(nodeState, rolloutPlacements);
+            int simulations = batchWins[0] + batchWins[1] + batchDraws;
+
+            for (int i = 0; i < pathLength; i++) {
+                path[i].update(simulations, batchWins);
+            }
+        }
+        else {
+            winner = MCTS.runDefaultPolicy(nodeState, rolloutPlacements, random);
+            updatePath(winner);
+        }
+
+        if (rolloutPlacements != null) {
+            updateRave(winner);
+        }
+    }
+
+
+    /**
+     * Backpropagates the result of a single simulation through the nodes of the path
+     * @param winner The result of the simulation
+     */
+    private void updatePath(byte winner) {
+
+        for (int i = 0; i < pathLength; i++) {
+            if (virtualLoss) {
+                path[i].removeVirtualLoss();
+            }
+
+            path[i].update(winner);
+        }
+    }
+
+
+    /**
+     * Proves the last node of the path if its position is a won game or if the player to move can win on this move.
+     * @param leaf The last node of the path
+     * @param leafState The state of the board at the leaf
+     * @return true if the leaf is proven
+     */
+    private boolean solve(UCTNode leaf, PentagoBitBoard leafState) {
+
+        if (leafState.gameOver()) {
+            if (leafState.getWinner() == DRAW) {
+                return false;
+            }
+
+            leaf.setProvenWinner(leafState.getWinner());
+        }
+        else if (leafState.hasWinMove()) {
+            leaf.setProvenWinner(leafState.getTurnPlayer());
+        }
+        else {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Propagates the proof of the last node of the path to the nodes above it, as long as they can be proven from
+     * their children.
+     */
+    private void propagateProof() {
+
+        for (int i = pathLength - 2; i >= 0; i--) {
+            if (!path[i].updateProof()) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Credits the result of the simulation to the AMAF statistics of the children of the nodes of the path. The
+     * children of a node are credited with the pieces placed after it, both in the tree and during the rollout.
+     * @param winner The result of the rollout that recorded the placements
+     */
+    private void updateRave(byte winner) {
+
+        for (int i = pathLength - 1; i >= 0; i--) {
+            path[i].updateRave(placements, winner);
+
+            // The move leading to this node was played after its parent
+            long move = pathMoves[i];
+            placements[PentagoBitMove.getPlayer(move)] |= PentagoBitMove.getBitCoord(move);
+        }
+    }
+
+
+    /**
+     * Runs a batch of rollouts from the same state. One rollout is ran by the calling thread, the others by the pool.
+     * The number of completed rollouts won by each player is stored in batchWins and the number of draws in batchDraws.
+     * @param nodeState The state to play from. The moves of the rollout ran by the calling thread are applied to it.
+     * @param placements The coordinates of the pieces placed during the rollout ran by the calling thread are added to
+     *                   it. Can be null.
+     * @return The winner of the rollout ran by the calling thread
+     */
+    private byte runDefaultPolicyBatch(PentagoBitBoard nodeState, long[] placements) {
+
+        List<Future<Byte>> rollouts = new ArrayList<>(batchSize - 1);
+        for (int i = 1; i < batchSize; i++) {
+            PentagoBitBoard rolloutState = (PentagoBitBoard) nodeState.clone();
+            // Every rollout gets its own generator since the rollouts run on the threads of the pool
+            FastRandom rolloutRandom = new FastRandom(random.nextLong());
+            rollouts.add(rolloutPool.submit(() -> MCTS.runDefaultPolicy(rolloutState, null, rolloutRandom)));
+        }
+
+        batchWins[0] = 0;
+        batchWins[1] = 0;
+        batchDraws = 0;
+
+        byte winner = MCTS.runDefaultPolicy(nodeState, placements, random);
+        addToBatch(winner);
+
+        for (Future<Byte> rollout : rollouts) {
+            try {
+                addToBatch(rollout.get());
+            } catch (InterruptedException e) {
+                // Keep the results of the rollouts that completed
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A rollout of the batch failed", e.getCause());
+            }
+        }
+
+        return winner;
+    }
+
+
+    private void addToBatch(byte winner) {
+        if (winner == PentagoBitBoard.DRAW) {
+            batchDraws++;
+        }
+        else {
+            batchWins[winner]++;
+        }
+    }
+
+
+    /**
+     * Selects the child of an expanded node to descend to. A child is created for a random untried move as long as the
+     * node is allowed more children, otherwise the child with the highest UCT value is selected. If every child is a
+     * proven loss, an untried move is tried even if progressive widening does not allow it yet.
+     * @param node The node to select a child from
+     * @param nodeState The state of the board at the node. Left unchanged.
+     * @return The index of the selected child
+     */
+    private int selectChild(UCTNode node, PentagoBitBoard nodeState) {
+
+        int maxChildren = maxChildren(node);
+
+        if (node.getChildCount() < maxChildren) {
+            int childIndex = node.addChild(maxChildren, table, nodeState, random);
+
+            if (childIndex >= 0) {
+                return childIndex;
+            }
+        }
+
+        int childIndex = node.getChildIndexMaxUCTValue(raveEquivalence);
+
+        if (childIndex < 0) {
+            childIndex = node.addChild(node.getMoveCount(), table, nodeState, random);
+        }
+
+        // Every move is a proven loss, the node gets proven once the result of the child is backpropagated
+        return Math.max(childIndex, 0);
+    }
+
+
+    /**
+     * Computes the number of children a node is allowed to have. With progressive widening, a node visited n times
+     * can have ceil(coefficient * n^exponent) children. The moves of the root are never restricted.
+     * @param node An expanded node
+     * @return The maximum number of children, at least 1
+     */
+    private int maxChildren(UCTNode node) {
+
+        int moveCount = node.getMoveCount();
+
+        if (wideningCoefficient <= 0 || node == root) {
+            return moveCount;
+        }
+
+        double visits = node.getNumSims() / 2;
+        int maxChildren = (int) Math.ceil(wideningCoefficient * Math.pow(visits, wideningExponent));
+
+        return Math.max(1, Math.min(moveCount, maxChildren));
+    }
+
+
+    /**
+     * @param node The node selected
+     * @param move The move leading to the node from the previous node of the path
+     */
+    private void addToPath(UCTNode node, long move) {
+        pathMoves[pathLength] = move;
+        path[pathLength++] = node;
+
+        if (virtualLoss) {
+            node.addVirtualLoss();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package pentago_agent.Montecarlo;
+
+/**
+ * Table of the nodes of a search graph by the key of their position, such that positions reached by different orders of
+ * moves share the same node and its statistics.
+ * The table uses open addressing with linear probing. Entries are never removed, once the table is full new positions
+ * are no longer added and get their own node.
+ */
+class TranspositionTable {
+
+    /**
+     * Maximum ratio of used slots before new positions are no longer added
+     */
+    private static final double MAX_LOAD = 0.75;
+
+    private final long[] keys;
+    private final UCTNode[] nodes;
+    private final int mask;
+    private final int maxSize;
+
+    private int size;
+
+    /**
+     * @param capacity Maximum number of positions the table can hold. Rounded up such that the slots are a power of two.
+     */
+    TranspositionTable(int capacity) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The transposition table needs to hold at least one position. Capacity: " + capacity);
+        }
+
+        int slots = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(capacity / MAX_LOAD)));
+        if (slots < capacity / MAX_LOAD) {
+            slots <<= 1;
+        }
+
+        this.keys = new long[slots];
+        this.nodes = new UCTNode[slots];
+        this.mask = slots - 1;
+        this.maxSize = (int) (slots * MAX_LOAD);
+    }
+
+    /**
+     * Finds the node of a position, the given node is added if the position is not in the table yet.
+     * @param key The key of the position
+     * @param node The node to add if the position is not in the table
+     * @return The node of the position in the table, or the given node if the position was not in the table
+     */
+    synchronized UCTNode putIfAbsent(long key, UCTNode node) {
+
+        int slot = slot(key);
+
+        while (nodes[slot] != null) {
+            if (keys[slot] == key) {
+                return nodes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // The table is full, the node is kept out of the table
+        if (size >= maxSize) {
+            return node;
+        }
+
+        keys[slot] = key;
+        nodes[slot] = node;
+        size++;
+
+        return node;
+    }
+
+    /**
+     * Finds the node of a position
+     * @param key The key of the position
+     * @return The node of the position, null if the position is not in the table
+     */
+    synchronized UCTNode get(long key) {
+
+        int slot = slot(key);
+
+        while (nodes[slot] != null) {
+            if (keys[slot] == key) {
+                return nodes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return null;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
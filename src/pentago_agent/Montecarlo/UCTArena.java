@@ -0,0 +1,243 @@
+package pentago_agent.Montecarlo;
+
+import pentago_agent.FastRandom;
+import pentago_agent.PentagoBitBoard;
+import pentago_agent.PentagoBitMove;
+
+import java.util.List;
+
+import static pentago_agent.PentagoBitBoard.DRAW;
+
+/**
+ * Upper Confidence Tree (UCT) stored in preallocated arrays of primitives instead of UCTNode objects.
+ * Nodes are addressed by their index in the arrays. The root is node 0 and the children of a node are stored next to
+ * each other starting at the index firstChild[node].
+ * <pre>
+ * Node i:  moves[i]       The move leading to the node
+ *          winScores[i]   Win score of the player who played the move (2 for a win, 1 for a draw)
+ *          numSims[i]     Number of simulations that went through the node (incremented by 2 for every simulation)
+ *          firstChild[i]  Index of the first child of the node
+ *          childCount[i]  Number of children of the node (0 for a leaf)
+ * </pre>
+ * Parents are not stored. The nodes selected during a simulation are kept in a path buffer which is used to
+ * backpropagate the result. Once the arena is full, leaves are no longer expanded.
+ * An arena must only be used by one thread.
+ */
+class UCTArena {
+
+    static final int ROOT = 0;
+
+    /**
+     * Number of bytes used by the arrays for every node
+     */
+    static final int BYTES_PER_NODE = Long.BYTES + 3 * Integer.BYTES + Short.BYTES;
+
+    /**
+     * A path contains at most the root and one node for each move of the game
+     */
+    private static final int MAX_PATH_LENGTH = 37;
+
+    private static final double EXPLOITATION_PARAM = Math.sqrt(2);
+
+    private final long[] moves;
+    private final int[] winScores;
+    private final int[] numSims;
+    private final int[] firstChild;
+    private final short[] childCount;
+
+    private int size;
+
+    /**
+     * Nodes selected during the current simulation, starting at the root
+     */
+    private final int[] path = new int[MAX_PATH_LENGTH];
+    private int pathLength;
+
+    /**
+     * Creates an arena and expands its root
+     * @param capacity Maximum number of nodes the arena can hold
+     * @param rootMoves The moves that can be played from the root
+     */
+    UCTArena(int capacity, List<Long> rootMoves) {
+
+        if (capacity < rootMoves.size() + 1) {
+            throw new IllegalArgumentException("The arena cannot hold the root and its children. Capacity: " + capacity);
+        }
+
+        this.moves = new long[capacity];
+        this.winScores = new int[capacity];
+        this.numSims = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.childCount = new short[capacity];
+
+        this.size = 1;
+
+        expandNode(ROOT, rootMoves);
+    }
+
+    /**
+     * Selects a leaf to expand by following the children with the highest UCT value from the root.
+     * The selected nodes are recorded in the path buffer.
+     * @param state The state of the board at the root. The moves of the selected path are applied to it.
+     * @return The selected leaf
+     */
+    int findPromisingNode(PentagoBitBoard state) {
+
+        int node = ROOT;
+        path[0] = ROOT;
+        pathLength = 1;
+
+        while (childCount[node] > 0) {
+            node = getChildMaxUCTValue(node);
+            state.makeMove(moves[node]);
+            path[pathLength++] = node;
+        }
+
+        return node;
+    }
+
+    /**
+     * Finds the child with the highest UCT value. Unvisited children are picked first.
+     * @param node The parent node
+     * @return The index of the child
+     */
+    private int getChildMaxUCTValue(int node) {
+
+        int first = firstChild[node];
+        int last = first + childCount[node];
+
+        double logParentSims = Math.log(numSims[node]);
+
+        int bestChild = first;
+        double bestValue = Double.NEGATIVE_INFINITY;
+
+        for (int child = first; child < last; child++) {
+
+            int childSims = numSims[child];
+
+            if (childSims == 0) {
+                return child;
+            }
+
+            double value = (winScores[child] / (double) childSims) + EXPLOITATION_PARAM * Math.sqrt(logParentSims / childSims);
+
+            if (value > bestValue) {
+                bestValue = value;
+                bestChild = child;
+            }
+        }
+
+        return bestChild;
+    }
+
+    /**
+     * Creates the children of a node
+     * @param node The node to expand
+     * @param childMoves The moves that can be played from the node
+     * @return false if the arena does not have the capacity to hold the children
+     */
+    boolean expandNode(int node, List<Long> childMoves) {
+
+        if (size + childMoves.size() > moves.length) {
+            return false;
+        }
+
+        firstChild[node] = size;
+        childCount[node] = (short) childMoves.size();
+
+        for (Long move : childMoves) {
+            moves[size++] = move;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the children of a node
+     * @param node The node to expand
+     * @param childMoves Buffer holding the moves that can be played from the node
+     * @param numMoves The number of moves in the buffer
+     * @return false if the arena does not have the capacity to hold the children
+     */
+    boolean expandNode(int node, long[] childMoves, int numMoves) {
+
+        if (size + numMoves > moves.length) {
+            return false;
+        }
+
+        firstChild[node] = size;
+        childCount[node] = (short) numMoves;
+
+        System.arraycopy(childMoves, 0, moves, size, numMoves);
+        size += numMoves;
+
+        return true;
+    }
+
+    /**
+     * Picks a random child of a node and adds it to the path buffer
+     * @param node The parent node
+     * @param random The random generator of the calling thread
+     * @return The index of the child
+     */
+    int selectRandomChild(int node, FastRandom random) {
+        int child = firstChild[node] + random.nextInt(childCount[node]);
+        path[pathLength++] = child;
+        return child;
+    }
+
+    /**
+     * Backpropagates the result of a default policy simulation through the nodes of the path buffer. Note a win
+     * increments win score by 2, a draw increments by 1 and a loss increments by 0.
+     * @param winner the result of the default policy
+     */
+    void backPropagate(int winner) {
+
+        for (int i = 0; i < pathLength; i++) {
+            int node = path[i];
+
+            numSims[node] += 2;
+
+            if (winner == DRAW)
+                winScores[node]++;
+            else if (PentagoBitMove.getPlayer(moves[node]) == winner)
+                winScores[node] += 2;
+        }
+    }
+
+    int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    long getMove(int node) {
+        return moves[node];
+    }
+
+    int getWinScore(int node) {
+        return winScores[node];
+    }
+
+    int getNumSims(int node) {
+        return numSims[node];
+    }
+
+    double getWinRate(int node) {
+        if (numSims[node] == 0) {
+            return 0;
+        }
+
+        return (double) winScores[node] / (double) numSims[node];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return moves.length;
+    }
+}
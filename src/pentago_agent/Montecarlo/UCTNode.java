@@ -1,33 +1,88 @@
 package pentago_agent.Montecarlo;
 
+import pentago_agent.FastRandom;
 import pentago_agent.PentagoBitBoard;
 import pentago_agent.PentagoBitMove;
 
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static pentago_agent.PentagoBitBoard.DRAW;
+import static pentago_agent.PentagoBitBoard.NOBODY;
 
 /**
  * Class representing an Upper Confidence Tree (UCT) for use in Monte Carlo Tree search.
  * Note that in order to save on memory, only moves are store in each node. To get the current state at a given node
  * Moves are applied form the root to the current node to generate this state
+ *
+ * Children are created lazily. Expanding a node only stores the moves that can be played from it, a child object is
+ * created for one of these moves each time the search decides to try a new move from the node. The moves that were
+ * not tried yet are stored after the moves of the children in childMoves.
+ *
+ * The statistics of a node are updated atomically and its children are added under the lock of the node such that a
+ * single tree can be shared between multiple search threads.
+ *
+ * When transpositions are shared, a node can be the child of multiple parents and the move stored in the node is only
+ * the move of the first parent that created it. The moves leading to the children of a node are always read from the
+ * childMoves of the parent.
+ *
+ * A node can be proven by the solver: its provenWinner is the player who wins from its position with perfect play.
+ * A node is proven when its position is a won game, when the player to move can win on their move, when one of its
+ * children is a win for the player to move or when every move leads to a win of the opponent.
  */
 class UCTNode {
 
-    private static final ThreadLocalRandom rand = ThreadLocalRandom.current();
+    private static final AtomicIntegerFieldUpdater<UCTNode> WIN_SCORE = AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "winScore");
+    private static final AtomicIntegerFieldUpdater<UCTNode> NUM_SIMS = AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "numSims");
+    private static final AtomicIntegerFieldUpdater<UCTNode> RAVE_WIN_SCORE = AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "raveWinScore");
+    private static final AtomicIntegerFieldUpdater<UCTNode> RAVE_NUM_SIMS = AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "raveNumSims");
 
-    private int winScore;
-    private int numSims;
+    private volatile int winScore;
+    private volatile int numSims;
+
+    /**
+     * All moves as first (AMAF) statistics: simulations that went through the parent of this node in which the player
+     * of this node placed a piece on the coordinate of this node's move at any later point. Scored like the node's own
+     * statistics.
+     */
+    private volatile int raveWinScore;
+    private volatile int raveNumSims;
+
+    /**
+     * The player who wins from the position of this node with perfect play, NOBODY if it was not proven
+     */
+    private volatile byte provenWinner = NOBODY;
 
     private final long move;
     private final byte player;
 
     private UCTNode parent;
-    private List<UCTNode> children;
+
+    /**
+     * Children that were created so far, null if the node was not expanded. Only the first numChildren entries are set.
+     */
+    private volatile UCTNode[] children;
+
+    /**
+     * The moves that can be played from this node. The first numChildren moves lead to the children in the same order,
+     * the others were not tried yet. Written before children such that it is visible to any thread that sees the children.
+     */
+    private long[] childMoves;
+
+    /**
+     * Number of children that were created. Written after the child such that it is visible to any thread that sees
+     * the count.
+     */
+    private volatile int numChildren;
 
     private static final double EXPLOITATION_PARAM = Math.sqrt(2);
 
+    /**
+     * Number of simulations a virtual loss counts for. A virtual loss is a simulation with a score of 0 that is added
+     * to every node on the path selected by a thread until its simulation is backpropagated.
+     */
+    private static final int VIRTUAL_LOSS = 1;
+
     public UCTNode(long move, UCTNode parent) {
         this.move = move;
         this.player = (byte) PentagoBitMove.getPlayer(move);
@@ -41,41 +96,109 @@ class UCTNode {
     }
 
     /**
-     * Backpropagates the result of a default policy simulation back up to the root node. Note a win increments win
+     * Records the result of a default policy simulation that went through this node. Note a win increments win
      * score by 2, a draw increments by 1 and a loss increments by 0. Each simulation increments numSims by 2. (such
      * that it doesn't appear that the win/sim ratio is twice what it is supposed to be
      *
      * @param winner the result of the default policy
      */
-    void backPropagate(int winner) {
+    void update(int winner) {
 
-        UCTNode currentNode = this;
-        // Continue to root
-        while(currentNode != null) {
-            // Increment the number of simulations
-            currentNode.numSims += 2;
+        // Increment the number of simulations
+        NUM_SIMS.addAndGet(this, 2);
 
-            if (winner == DRAW)
-                currentNode.winScore++;
-            else if (player == winner)
-                currentNode.winScore += 2;
+        if (winner == DRAW)
+            WIN_SCORE.incrementAndGet(this);
+        else if (this.player == winner)
+            WIN_SCORE.addAndGet(this, 2);
+    }
 
-            // Move to parent
-            currentNode = currentNode.parent;
+    /**
+     * Records the results of a batch of default policy simulations that went through this node.
+     * @param simulations the number of simulations in the batch
+     * @param wins the number of simulations won by each player, indexed by player. The other simulations are draws.
+     */
+    void update(int simulations, int[] wins) {
+
+        int draws = simulations - wins[0] - wins[1];
+
+        NUM_SIMS.addAndGet(this, 2 * simulations);
+        WIN_SCORE.addAndGet(this, 2 * wins[this.player] + draws);
+    }
+
+    /**
+     * Credits the result of a simulation to the AMAF statistics of the children whose move places a piece on a
+     * coordinate where the player of the child placed a piece later in the simulation.
+     * @param placements the coordinates where each player placed a piece after this node, indexed by player
+     * @param winner the result of the default policy
+     */
+    void updateRave(long[] placements, int winner) {
+
+        UCTNode[] children = this.children;
+
+        if (children == null) {
+            return;
         }
+
+        int numChildren = this.numChildren;
+
+        for (int i = 0; i < numChildren; i++) {
+            long childMove = childMoves[i];
+
+            if ((placements[PentagoBitMove.getPlayer(childMove)] & PentagoBitMove.getBitCoord(childMove)) == 0) {
+                continue;
+            }
+
+            UCTNode child = children[i];
+            RAVE_NUM_SIMS.addAndGet(child, 2);
+
+            if (winner == DRAW)
+                RAVE_WIN_SCORE.incrementAndGet(child);
+            else if (child.player == winner)
+                RAVE_WIN_SCORE.addAndGet(child, 2);
+        }
+    }
+
+    /**
+     * Adds a virtual loss to this node such that other threads sharing the tree are discouraged from selecting
+     * the same path while the simulation of this thread is running.
+     */
+    void addVirtualLoss() {
+        NUM_SIMS.addAndGet(this, 2 * VIRTUAL_LOSS);
+    }
+
+    /**
+     * Removes a virtual loss added to this node
+     */
+    void removeVirtualLoss() {
+        NUM_SIMS.addAndGet(this, -2 * VIRTUAL_LOSS);
     }
 
     /**
      * Calculates the value of this state given it's win score, the number of simulations and the number of simulations
-     * of it's parent
+     * of it's parent. When RAVE is used, the win rate is blended with the AMAF win rate with a weight of
+     * sqrt(k / (3n + k)) for the AMAF win rate, where n is the number of simulations of this node and k the equivalence
+     * parameter. The AMAF win rate is trusted for the first simulations and fades out as the node is visited.
+     * @param logParentSims the log of the number of simulations of the parent
+     * @param raveEquivalence the equivalence parameter k, 0 to ignore the AMAF statistics
      * @return this state's value
      */
-    double getUCTValue() {
+    double getUCTValue(double logParentSims, double raveEquivalence) {
+
+        int numSims = this.numSims;
 
-        if (this.numSims == 0)
+        if (numSims == 0)
             return Double.MAX_VALUE;
 
-        return (this.winScore / (double) this.numSims) + EXPLOITATION_PARAM * Math.sqrt(Math.log(this.parent.numSims)/this.numSims);
+        double winRate = this.winScore / (double) numSims;
+
+        int raveNumSims = this.raveNumSims;
+        if (raveEquivalence > 0 && raveNumSims > 0) {
+            double beta = Math.sqrt(raveEquivalence / (3 * (numSims / 2) + raveEquivalence));
+            winRate = (1 - beta) * winRate + beta * (this.raveWinScore / (double) raveNumSims);
+        }
+
+        return winRate + EXPLOITATION_PARAM * Math.sqrt(logParentSims/numSims);
     }
 
 
@@ -83,17 +206,17 @@ class UCTNode {
      * Generates a PentagoBitBoard state by applying moves from root to this node. (design choice to minimize memory
      * usage)
      * @param startState the current state of the game (state at the root).
-     * @return the state at this node
+     * @return a new board with the state at this node
      */
     PentagoBitBoard getState(PentagoBitBoard startState) {
 
         // If we are at the root, game state is unchanged
-        if(this.move == 0) return startState;
+        if(this.parent == null) return (PentagoBitBoard) startState.clone();
 
         // Get the chain of moves from the parent to this move
         Stack<Long> moveStack = new Stack<>();
         UCTNode currentNode = this;
-        while(currentNode != null && currentNode.move != 0) {
+        while(currentNode.parent != null) {
             moveStack.push(currentNode.move);
             currentNode = currentNode.parent;
         }
@@ -101,22 +224,97 @@ class UCTNode {
         // Apply the moves
         PentagoBitBoard endState = (PentagoBitBoard) startState.clone();
         while(!moveStack.isEmpty()) {
-            endState.processMove(moveStack.pop());
+            endState.makeMove(moveStack.pop());
         }
 
         return endState;
     }
 
+    byte getProvenWinner() {
+        return provenWinner;
+    }
+
+    /**
+     * Marks the position of this node as a win for a player. Once proven, the node is no longer searched.
+     * @param winner the player who wins from this node
+     */
+    void setProvenWinner(byte winner) {
+        this.provenWinner = winner;
+    }
+
+    /**
+     * Tries to prove this node from the proofs of its children. The player to move wins if one of the children is a
+     * win for them, and loses if every move was tried and every child is a win for the opponent.
+     * @return true if this node is proven
+     */
+    boolean updateProof() {
+
+        UCTNode[] children = this.children;
+        int numChildren = this.numChildren;
+
+        if (children == null || numChildren == 0) {
+            return provenWinner != NOBODY;
+        }
+
+        int mover = PentagoBitMove.getPlayer(childMoves[0]);
+        boolean allLost = numChildren == childMoves.length;
+
+        for (int i = 0; i < numChildren; i++) {
+            byte childWinner = children[i].provenWinner;
+
+            if (childWinner == mover) {
+                this.provenWinner = (byte) mover;
+                return true;
+            }
+
+            if (childWinner != 1 - mover) {
+                allLost = false;
+            }
+        }
+
+        if (allLost) {
+            this.provenWinner = (byte) (1 - mover);
+        }
+
+        return allLost;
+    }
+
     void setParent(UCTNode parent) {
         this.parent = parent;
     }
 
-    boolean hasChildren() {
-        return !(this.children == null || this.children.size() == 0);
+    /**
+     * @return true if the moves that can be played from this node were set
+     */
+    boolean isExpanded() {
+        return children != null;
     }
 
-    List<UCTNode> getChildren() {
-        return children;
+    /**
+     * @return the number of children that were created
+     */
+    int getChildCount() {
+        return numChildren;
+    }
+
+    /**
+     * @return the number of moves that can be played from this node, including the moves that were not tried yet
+     */
+    int getMoveCount() {
+        return childMoves.length;
+    }
+
+    UCTNode getChildAt(int index) {
+        return children[index];
+    }
+
+    /**
+     * Gets the move leading from this node to one of its children
+     * @param index the index of the child
+     * @return the move
+     */
+    long getChildMove(int index) {
+        return childMoves[index];
     }
 
     long getMove() {
@@ -124,6 +322,8 @@ class UCTNode {
     }
 
     double getWinRate() {
+        int numSims = this.numSims;
+
         if (numSims == 0) {
             return 0;
         }
@@ -139,23 +339,215 @@ class UCTNode {
         return numSims;
     }
 
-    void expandNode(List<Long> moves) {
+    /**
+     * Sets the moves that can be played from this node. No child is created. If another thread already expanded this
+     * node, its moves are kept.
+     * @param moves the moves that can be played from this node
+     * @return true if this call expanded the node
+     */
+    synchronized boolean expandNode(List<Long> moves) {
+        return expandNode(toArray(moves), moves.size());
+    }
+
+    /**
+     * Sets the moves that can be played from this node. No child is created. If another thread already expanded this
+     * node, its moves are kept.
+     * @param moves buffer holding the moves that can be played from this node, it is copied
+     * @param numMoves the number of moves in the buffer
+     * @return true if this call expanded the node
+     */
+    synchronized boolean expandNode(long[] moves, int numMoves) {
+
+        if (this.children != null) {
+            return false;
+        }
+
+        this.childMoves = Arrays.copyOf(moves, numMoves);
+        this.children = new UCTNode[numMoves];
+
+        return true;
+    }
+
+    /**
+     * Creates a child for a random move that was not tried yet, unless the node already has enough children.
+     * @param maxChildren the maximum number of children the node can have
+     * @param table table used to share the nodes of transpositions, null to create a new node
+     * @param state the state of the board at this node, only used to find transpositions. Left unchanged.
+     * @param random the random generator of the calling thread
+     * @return the index of the new child, -1 if no child was created
+     */
+    synchronized int addChild(int maxChildren, TranspositionTable table, PentagoBitBoard state, FastRandom random) {
+
+        int index = this.numChildren;
+
+        // Another thread may have added a child since the caller checked
+        if (index >= Math.min(maxChildren, childMoves.length)) {
+            return -1;
+        }
+
+        // Swap a random untried move to the end of the tried moves
+        int untried = index + random.nextInt(childMoves.length - index);
+        long move = childMoves[untried];
+        childMoves[untried] = childMoves[index];
+        childMoves[index] = move;
+
+        UCTNode child = new UCTNode(move, this);
+
+        if (table != null) {
+            state.makeMove(move);
+            child = table.putIfAbsent(state.getPositionKey(), child);
+            state.unmakeMove();
+        }
+
+        children[index] = child;
+        this.numChildren = index + 1;
+
+        return index;
+    }
+
+    /**
+     * Restricts the moves of this node to the given moves. Children that already exist keep their statistics, the
+     * other moves are left untried. Must not be called while the tree is being searched.
+     * @param moves the moves the node should have
+     */
+    void restrictChildren(List<Long> moves) {
+
+        // The proof of the node may rely on moves that are removed, it is rebuilt from the children that are kept
+        this.provenWinner = NOBODY;
+
+        if (this.children == null) {
+            expandNode(moves);
+            return;
+        }
+
+        Map<Long, UCTNode> existingChildren = new HashMap<>(numChildren * 2);
+        for (int i = 0; i < numChildren; i++) {
+            existingChildren.put(childMoves[i], children[i]);
+        }
 
-        children = new ArrayList<>(moves.size());
+        UCTNode[] newChildren = new UCTNode[moves.size()];
+        long[] newChildMoves = new long[moves.size()];
+        int keptChildren = 0;
+        int untriedMoves = 0;
+        int childrenWinScore = 0;
+        int childrenNumSims = 0;
 
+        // The moves of the children that are kept come first, followed by the untried moves
         for (Long move : moves) {
+            UCTNode child = existingChildren.get(move);
+
+            if (child == null) {
+                newChildMoves[moves.size() - 1 - untriedMoves++] = move;
+                continue;
+            }
+
+            childrenWinScore += child.winScore;
+            childrenNumSims += child.numSims;
+            newChildren[keptChildren] = child;
+            newChildMoves[keptChildren++] = move;
+        }
+
+        // Only count the simulations that went through the children that were kept
+        this.childMoves = newChildMoves;
+        this.children = newChildren;
+        this.numChildren = keptChildren;
+        this.winScore = childrenWinScore;
+        this.numSims = childrenNumSims;
+
+        updateProof();
+    }
+
+    /**
+     * Finds the child of a move, or of a move leading to the same position since the moves of a node only include one
+     * move for each position reached
+     * @param move the move
+     * @param state the state of the board at this node
+     * @return the child, null if no child leads to the position
+     */
+    UCTNode getChild(long move, PentagoBitBoard state) {
+
+        UCTNode child = getChild(move);
+        if (child != null) {
+            return child;
+        }
+
+        long key = state.getChildKey(move);
+        UCTNode[] children = this.children;
+        int numChildren = this.numChildren;
+
+        for (int i = 0; i < numChildren; i++) {
+            if (state.getChildKey(childMoves[i]) == key) {
+                return children[i];
+            }
+        }
 
-            children.add(new UCTNode(move, this));
+        return null;
+    }
+
+    /**
+     * Finds the child of this node which represents a move
+     * @param move the move to look for
+     * @return the child for this move, null if there is none
+     */
+    UCTNode getChild(long move) {
+
+        UCTNode[] children = this.children;
+        int numChildren = this.numChildren;
 
+        for (int i = 0; i < numChildren; i++) {
+            if (childMoves[i] == move) {
+                return children[i];
+            }
         }
 
+        return null;
     }
 
-    UCTNode getChildMaxUCTValue() {
-        return Collections.max(children, Comparator.comparing(UCTNode::getUCTValue));
+    /**
+     * Finds the child with the highest UCT value. Children proven to be a win for the player to move are picked
+     * first, children proven to be a loss are skipped.
+     * @param raveEquivalence the RAVE equivalence parameter, 0 to ignore the AMAF statistics
+     * @return the index of the child, -1 if every child is a proven loss
+     */
+    int getChildIndexMaxUCTValue(double raveEquivalence) {
+
+        UCTNode[] children = this.children;
+        int numChildren = this.numChildren;
+        double logParentSims = Math.log(this.numSims);
+
+        int mover = PentagoBitMove.getPlayer(childMoves[0]);
+
+        int bestIndex = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < numChildren; i++) {
+            byte childWinner = children[i].provenWinner;
+
+            if (childWinner == mover) {
+                return i;
+            }
+            else if (childWinner != NOBODY) {
+                continue;
+            }
+
+            double value = children[i].getUCTValue(logParentSims, raveEquivalence);
+
+            if (value > bestValue) {
+                bestValue = value;
+                bestIndex = i;
+            }
+        }
+
+        return bestIndex;
     }
 
-    UCTNode getRandomChild() {
-        return children.get(rand.nextInt(children.size()));
+    private static long[] toArray(List<Long> moves) {
+
+        long[] array = new long[moves.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = moves.get(i);
+        }
+
+        return array;
     }
-}
\ No newline at end of file
+}
@@ -24,6 +24,21 @@ public class MoveFilter {
     private static List<Long> opponentCriticalStateMove;
     private static List<Long> opponentCriticalStateTwoMove;
 
+    /**
+     * Buffers receiving the moves of the opponent and the following moves of the agent while filtering, and the keys
+     * sorted to remove the moves leading to the same position
+     */
+    private static final long[] secondLayerMoves = new long[PentagoBitBoard.MAX_MOVES];
+    private static final long[] thirdLayerMoves = new long[PentagoBitBoard.MAX_MOVES];
+    private static final long[] moveKeys = new long[PentagoBitBoard.MAX_MOVES];
+
+    /**
+     * Buffers receiving the moves checked by the critical state checks: the moves of isCriticalState, and the moves of
+     * isTwoMoveCriticalState which calls isCriticalState after each of them
+     */
+    private static final long[] criticalMoves = new long[PentagoBitBoard.MAX_MOVES];
+    private static final long[] twoMoveCriticalMoves = new long[PentagoBitBoard.MAX_MOVES];
+
     /**
      * Return the least dangerous moves from this board state
      * @param boardState The current state of the board
@@ -43,7 +58,7 @@ public class MoveFilter {
 
         System.out.println("Filtering bad moves.");
 
-        List<Long> moves = boardState.getAllLegalNonSymmetricMoves();
+        List<Long> moves = boardState.getAllLegalUniqueMoves();
 
         System.out.println("The agent has the possibility to play " + moves.size() + " moves");
 
@@ -142,7 +157,7 @@ public class MoveFilter {
 
         for (Long move : moves) {
 
-            boardState.processMove(move);
+            boardState.makeMove(move);
 
             // This move makes the opponent win. Remove it
             if (boardState.getWinner() == 1 - player) {
@@ -150,7 +165,7 @@ public class MoveFilter {
             }
 
             // Check if we have put the opponent in a critical state
-            if (boardState.isCriticalState()) {
+            if (boardState.isCriticalState(criticalMoves, moveKeys)) {
                 criticalStateMoves.add(move);
             }
             // Check further in the tree
@@ -159,14 +174,14 @@ public class MoveFilter {
             }
 
 
-            boardState.undoMove(move);
+            boardState.unmakeMove();
         }
 
     }
 
     private static void secondLayerFilter(int player, long rootMove, PentagoBitBoard boardState) {
 
-        List<Long> secondLayerMoves = boardState.getAllLegalNonSymmetricMoves();
+        int numSecondLayerMoves = boardState.getUniqueMoves(secondLayerMoves, moveKeys);
 
         // If the opponent can win from this boardstate after our move, do not consider the move.
         if (!secondLayerElimination.contains(rootMove) && boardState.getWinMove(1 - player) > 0) {
@@ -176,24 +191,25 @@ public class MoveFilter {
 
         boolean twoLayerCritical = true;
 
-        for (Long secondMove : secondLayerMoves) {
+        for (int i = 0; i < numSecondLayerMoves; i++) {
+            long secondMove = secondLayerMoves[i];
 
             // Play the opponent move.
-            boardState.processMove(secondMove);
+            boardState.makeMove(secondMove);
 
             // If the opponent player makes the agent win, continue
             if (boardState.getWinner() == NOBODY) {
 
                 // Check if the opponent has put us in a critical state
-                if (!opponentCriticalStateMove.contains(rootMove) && boardState.isCriticalState()) {
+                if (!opponentCriticalStateMove.contains(rootMove) && boardState.isCriticalState(criticalMoves, moveKeys)) {
                     opponentCriticalStateMove.add(rootMove);
-                    boardState.undoMove(secondMove);
+                    boardState.unmakeMove();
                     return;
                 }
                 // Check if the opponent can guaranteed put us in a critical state two moves down
-                else if (!opponentCriticalStateTwoMove.contains(rootMove) && boardState.isTwoMoveCriticalState()) {
+                else if (!opponentCriticalStateTwoMove.contains(rootMove) && boardState.isTwoMoveCriticalState(twoMoveCriticalMoves, criticalMoves, moveKeys)) {
                     opponentCriticalStateTwoMove.add(rootMove);
-                    boardState.undoMove(secondMove);
+                    boardState.unmakeMove();
                     return;
                 }
                 // If the opponent cannot put us in a critical state, check if we can now put the opponent in a critical state from their move.
@@ -205,7 +221,7 @@ public class MoveFilter {
                 }
             }
 
-            boardState.undoMove(secondMove);
+            boardState.unmakeMove();
         }
 
         // We can guarantee a win from any of the moves the opponent plays at this level.
@@ -222,18 +238,19 @@ public class MoveFilter {
             return true;
         }
 
-        List<Long> thirdLayerMoves = boardState.getAllLegalNonSymmetricMoves();
+        int numThirdLayerMoves = boardState.getUniqueMoves(thirdLayerMoves, moveKeys);
 
-        for (Long thirdMove : thirdLayerMoves) {
+        for (int i = 0; i < numThirdLayerMoves; i++) {
+            long thirdMove = thirdLayerMoves[i];
 
-            boardState.processMove(thirdMove);
+            boardState.makeMove(thirdMove);
 
-            if (boardState.isCriticalState()) {
-                boardState.undoMove(thirdMove);
+            if (boardState.isCriticalState(criticalMoves, moveKeys)) {
+                boardState.unmakeMove();
                 return true;
             }
 
-            boardState.undoMove(thirdMove);
+            boardState.unmakeMove();
 
         }
 
@@ -9,11 +9,12 @@ public class MovePicker {
     /**
      * Pick the best move to play among non dangerous moves.
      * @param timeout The time allocated to pick a move
+     * @param maxTimeout The time the search can be extended to while its best move keeps changing
      * @param boardState The current board state
      * @param setOfMoves The set of moves to chose from
      * @return The best move to play.
      */
-    public static long pickMoveFromSet(long timeout, PentagoBitBoard boardState, List<Long> setOfMoves) {
+    public static long pickMoveFromSet(long timeout, long maxTimeout, PentagoBitBoard boardState, List<Long> setOfMoves) {
 
         // If there is only one move to pick from return the move.
         if (setOfMoves.size() == 1) {
@@ -22,7 +23,7 @@ public class MovePicker {
 
         System.out.println("Computing what move to play out of " + setOfMoves.size() + " least dangerous moves.");
 
-        return MCTS.getMCTSBestMove(timeout, setOfMoves, boardState);
+        return MCTS.getMCTSBestMove(timeout, maxTimeout, setOfMoves, boardState);
     }
 
 
@@ -1,7 +1,10 @@
 package pentago_agent;
 
+import boardgame.BoardState;
 import boardgame.Move;
 
+import pentago_agent.Montecarlo.MCTS;
+import pentago_swap.PentagoMove;
 import pentago_swap.PentagoPlayer;
 import pentago_swap.PentagoBoardState;
 
@@ -10,14 +13,23 @@ import java.util.List;
 
 public class PentagoAgent extends PentagoPlayer {
 
+
+    /**
+     * Keep searching while the opponent is thinking. Disabled since the tournament rules require the agent to halt its
+     * threads at the end of its turn.
+     */
+    private static final boolean PONDER = false;
+
+
     /**
-     * Time allocated for the agent to make a decision
+     * Allocates the time of each move
      */
-    private static final long TIMEOUT = 2000;
+    private final TimeManager timeManager = new TimeManager();
 
 
     public PentagoAgent() {
         super("Thanos Tier Ultimate Agent");
+        MCTS.setPondering(PONDER);
     }
 
 
@@ -28,20 +40,51 @@ public class PentagoAgent extends PentagoPlayer {
      */
     public Move chooseMove(PentagoBoardState pentagoBoardState) {
 
-        long startTime = System.currentTimeMillis();
-
         // Convert the PentagoBoardState to a bitboard
         PentagoBitBoard boardState = new PentagoBitBoard(pentagoBoardState);
 
+        timeManager.startMove(boardState);
+
         System.out.println("Player " + pentagoBoardState.getTurnPlayer() + " playing move " + boardState.getTurnNumber());
 
         List<Long> moves = MoveFilter.getNonDangerousMoves(boardState);
+        timeManager.setMoveCount(moves.size());
 
         // Pick the best move to play, allocate the time remaining to do so.
-        long moveToPlay = MovePicker.pickMoveFromSet(TIMEOUT - System.currentTimeMillis() + startTime, boardState, moves);
+        long moveToPlay = MovePicker.pickMoveFromSet(timeManager.getSearchTime(), timeManager.getMaxSearchTime(), boardState, moves);
+
+        long elapsed = timeManager.endMove();
 
-        System.out.println("Move decided in " + (System.currentTimeMillis() - startTime) + " ms, returning move: " + PentagoBitMove.toPrettyString(moveToPlay));
+        System.out.println("Move decided in " + elapsed + " ms, returning move: " + PentagoBitMove.toPrettyString(moveToPlay));
+        System.out.println("Banked time: " + timeManager.getBankedTime() + " ms");
 
         return PentagoBitMove.bitMoveToPentagoMove(moveToPlay);
     }
+
+
+    /**
+     * Moves the search tree down to the move played such that it can be reused on the next turn.
+     * Called for the moves of both players. After the agent's own move, the search keeps running in the background
+     * until the opponent's move is received (if pondering is enabled).
+     * @param boardState The board state after the move was played
+     * @param move The move that was played
+     */
+    @Override
+    public void movePlayed(BoardState boardState, Move move) {
+
+        PentagoBitBoard playedState = new PentagoBitBoard((PentagoBoardState) boardState);
+
+        MCTS.advanceRoot(PentagoBitMove.pentagoMoveToBitMove((PentagoMove) move), playedState);
+
+        if (move.getPlayerID() == player_id) {
+            MCTS.startPondering(playedState);
+        }
+    }
+
+
+    @Override
+    public void gameOver(String msg, BoardState boardState) {
+        MCTS.clearTree();
+        timeManager.reset();
+    }
 }
\ No newline at end of file
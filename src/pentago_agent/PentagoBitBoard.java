@@ -4,7 +4,6 @@ import boardgame.Board;
 import pentago_swap.PentagoBoardState;
 
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 
 import static pentago_swap.PentagoBoardState.*;
 
@@ -21,10 +20,6 @@ public class PentagoBitBoard {
 	private static final int MAX_TURNS = 36;
 	private static final int QUAD_SIZE = 3;
 
-	// Supposedly faster than java.util.Random
-	// https://lemire.me/blog/2016/02/01/default-random-number-generators-are-slow/
-	private static final ThreadLocalRandom rand = ThreadLocalRandom.current();
-
 	public static final byte DRAW = Byte.MAX_VALUE;
 	public static final byte NOBODY = Byte.MAX_VALUE - 1;
 
@@ -35,23 +30,40 @@ public class PentagoBitBoard {
 	 * -------------
 	 * |r 1 r|1 r 1|                 |           Unused           |Row 1 |Row 2 |Row 3 |Row 4 |Row 5 |Row 6 |
 	 * |r 2 r|2 r 2|                 |----------------------------|------|------|------|------|------|------|
-	 * |r 3 r|3 r 3|    pieces[i] =  |............................|r1r1r1|r2r2r2|r3r3r3|r4r4r4|r5r5r5|r6r6r6|
+	 * |r 3 r|3 r 3|        white =  |............................|r1r1r1|r2r2r2|r3r3r3|r4r4r4|r5r5r5|r6r6r6|
 	 * |-----|-----|
 	 * |r 4 r|4 r 4|
 	 * |r 5 r|5 r 5|
 	 * |r 6 r|6 r 6|
 	 * -------------
 	 * </pre>
-	 * pieces[0] are for White Placements
-	 * pieces[1] are for Black Placements
+	 * white holds the White Placements
+	 * black holds the Black Placements
 	 *
+	 * The two values are fields rather than an array such that copying a board does not allocate and accessing the
+	 * pieces does not go through an array reference and bounds check.
 	 */
-	private long[] pieces;
+	private long white;
+	private long black;
+
+	/**
+	 * Zobrist key of the position, kept up to date by makeMove and unmakeMove (see getPositionKey)
+	 */
+	private long key;
 
 	private byte turnPlayer;
 	private byte turnNumber;
 	private byte winner;
 
+	/**
+	 * Undo records of the moves made on this board since it was created or copied, two longs per move: the key before
+	 * the move, then the move with the winner, turn number and turn player before the move in its upper bits (see
+	 * RECORD_WINNER_SHIFT). The records are primitives such that making and unmaking moves does not allocate once the
+	 * stack is large enough.
+	 */
+	private long[] undoStack = EMPTY_UNDO_STACK;
+	private int undoDepth;
+
 
 	/**
 	 * Bit mask to access each quadrant separately
@@ -183,27 +195,250 @@ public class PentagoBitBoard {
 	};
 
 
+	/**
+	 * Number of swaps in QUAD_SWAPS
+	 */
+	private static final int NUM_SWAPS = 6;
+
+	/**
+	 * Number of bits to shift to swap the quadrants of each swap of QUAD_SWAPS
+	 */
+	private static final int[] SWAP_SHIFTS = new int[QUAD_SWAPS.length];
+
+	/**
+	 * Maps the quadrants of a move to the index of the swap in QUAD_SWAPS
+	 */
+	private static final int[][] SWAP_INDEX = new int[NUM_QUADS][NUM_QUADS];
+
+	/**
+	 * Scale of the logistic function mapping the static evaluation of a position to the probability that the player
+	 * to move wins, used to score truncated playouts. Fitted by the truncation benchmark with a logistic regression of
+	 * the results of full playouts on the evaluation of quiet positions of every game phase.
+	 */
+	private static final double EVALUATION_SCALE = 103.5;
+
+	/**
+	 * Advantage of the player to move in a quiet position, added to the scaled evaluation (log odds). Fitted with
+	 * EVALUATION_SCALE.
+	 */
+	private static final double MOVER_ADVANTAGE = 0.32;
+
+	/**
+	 * Quadrant bits of a move for each swap of QUAD_SWAPS
+	 */
+	private static final long[] SWAP_MOVE_BITS = new long[NUM_SWAPS];
+
+	static {
+		for (int i = 0; i < QUAD_SWAPS.length; i++) {
+			SWAP_MOVE_BITS[i] = createBitMove(0, QUAD_SWAPS[i][0], QUAD_SWAPS[i][1], 0);
+			SWAP_SHIFTS[i] = QUADRANT_BIT_SHIFTS[QUAD_SWAPS[i][0]][QUAD_SWAPS[i][1]];
+			SWAP_INDEX[QUAD_SWAPS[i][0]][QUAD_SWAPS[i][1]] = i;
+			SWAP_INDEX[QUAD_SWAPS[i][1]][QUAD_SWAPS[i][0]] = i;
+		}
+	}
+
+	/**
+	 * Maximum number of moves of a position: a move for each swap on each coordinate
+	 */
+	public static final int MAX_MOVES = BOARD_SIZE * BOARD_SIZE * NUM_SWAPS;
+
+	/**
+	 * Undo stack of a board no move was made on, replaced on the first move
+	 */
+	private static final long[] EMPTY_UNDO_STACK = new long[0];
+
+	/**
+	 * Number of longs of an undo record, and the positions of the state before the move in the second long of a record
+	 */
+	private static final int RECORD_SIZE = 2;
+	private static final int RECORD_WINNER_SHIFT = 48;
+	private static final int RECORD_TURN_NUMBER_SHIFT = 56;
+	private static final int RECORD_TURN_PLAYER_SHIFT = 62;
+
+	/**
+	 * Bits of a record holding the move, the player bit being the highest bit of a move
+	 */
+	private static final long RECORD_MOVE_MASK = (1L << 41) - 1;
+
+	/**
+	 * Number of bits used to pack the index of a swap in a list of swaps, the mask of one index and the list of all
+	 * the swaps of QUAD_SWAPS in order
+	 */
+	private static final int SWAP_BITS = 3;
+	private static final int SWAP_INDEX_MASK = (1 << SWAP_BITS) - 1;
+	private static final int ALL_SWAPS = 0 | 1 << 3 | 2 << 6 | 3 << 9 | 4 << 12 | 5 << 15;
+
+	/**
+	 * Lowest bits of a key replaced by the index of a move when the moves are sorted by key, enough for MAX_MOVES
+	 */
+	private static final long MOVE_INDEX_MASK = 0xFF;
+
+	/**
+	 * Bits of the two quadrants of each swap of QUAD_SWAPS
+	 */
+	private static final long[] SWAP_QUADRANTS = new long[NUM_SWAPS];
+
+	/**
+	 * Winning masks touching at least one of the quadrants of each swap of QUAD_SWAPS. The other masks are not changed
+	 * by the swap.
+	 */
+	private static final long[][] SWAP_LINES = new long[NUM_SWAPS][];
+
+	/**
+	 * Winning masks going through each coordinate, indexed by the position of the bit of the coordinate
+	 */
+	private static final long[][] COORD_LINES = new long[BOARD_SIZE * BOARD_SIZE][];
+
+	static {
+		for (int i = 0; i < NUM_SWAPS; i++) {
+			SWAP_QUADRANTS[i] = QUADRANT_MASKS[QUAD_SWAPS[i][0]] | QUADRANT_MASKS[QUAD_SWAPS[i][1]];
+			SWAP_LINES[i] = linesIntersecting(SWAP_QUADRANTS[i]);
+		}
+
+		for (int bit = 0; bit < COORD_LINES.length; bit++) {
+			COORD_LINES[bit] = linesIntersecting(1L << bit);
+		}
+	}
+
+	/**
+	 * Transform bits of the symmetries of the board, see transformPieces
+	 */
+	public static final int TRANSPOSE = 1;
+	public static final int MIRROR_COLUMNS = 2;
+	public static final int MIRROR_ROWS = 4;
+	public static final int NUM_SYMMETRIES = 8;
+
+	/**
+	 * Lowest square of each row
+	 */
+	private static final long ROW_SQUARES = 0b000001000001000001000001000001000001L;
+
+	/**
+	 * Squares below the diagonal of each quadrant swapped with the square above the diagonal, 5 and 10 bits higher, by
+	 * the transposition of the quadrants
+	 */
+	private static final long TRANSPOSE_MASK_5;
+	private static final long TRANSPOSE_MASK_10;
+
+	static {
+		long mask5 = 0;
+		long mask10 = 0;
+		for (int row = 0; row < BOARD_SIZE; row += QUAD_SIZE) {
+			for (int col = 0; col < BOARD_SIZE; col += QUAD_SIZE) {
+				mask5 |= colRowToBitCoord(col, row + 1) | colRowToBitCoord(col + 1, row + 2);
+				mask10 |= colRowToBitCoord(col, row + 2);
+			}
+		}
+		TRANSPOSE_MASK_5 = mask5;
+		TRANSPOSE_MASK_10 = mask10;
+	}
+
+	/**
+	 * Seed of the random keys of the Zobrist hashing such that keys are the same on every run
+	 */
+	private static final long ZOBRIST_SEED = 0x2545F4914F6CDD1DL;
+
+	/**
+	 * QUADRANT_KEYS[player][pattern] is the key of the pieces of a player in a quadrant, where pattern holds the 9
+	 * squares of the quadrant row by row. It is the xor of a random key of each square, and depends only on the
+	 * content of the quadrant such that it follows the content when quadrants are swapped.
+	 */
+	private static final long[][] QUADRANT_KEYS = new long[2][1 << QUAD_SIZE * QUAD_SIZE];
+
+	/**
+	 * Number of bits the key of the content of each quadrant is rotated by before it is added to the key of the
+	 * position. Since a rotation distributes over xor, the key of a quadrant is moved to another quadrant by rotating it
+	 * again instead of going through its squares.
+	 */
+	private static final int[] QUADRANT_KEY_ROTATIONS = {0, 16, 32, 48};
+
+	/**
+	 * Key added to the position key when black is to move
+	 */
+	private static final long BLACK_TO_MOVE_KEY;
+
+	/**
+	 * Quadrant of each coordinate, indexed by the position of the bit of the coordinate
+	 */
+	private static final byte[] COORD_QUADRANTS = new byte[BOARD_SIZE * BOARD_SIZE];
+
+	static {
+		FastRandom random = new FastRandom(ZOBRIST_SEED);
+
+		for (long[] keys : QUADRANT_KEYS) {
+			long[] squareKeys = new long[QUAD_SIZE * QUAD_SIZE];
+			for (int square = 0; square < squareKeys.length; square++) {
+				squareKeys[square] = random.nextLong();
+			}
+
+			for (int pattern = 1; pattern < keys.length; pattern++) {
+				int square = Integer.numberOfTrailingZeros(pattern);
+				keys[pattern] = keys[pattern & (pattern - 1)] ^ squareKeys[square];
+			}
+		}
+
+		BLACK_TO_MOVE_KEY = random.nextLong();
+
+		for (int bit = 0; bit < COORD_QUADRANTS.length; bit++) {
+			for (byte quad = 0; quad < NUM_QUADS; quad++) {
+				if ((QUADRANT_MASKS[quad] & (1L << bit)) != 0) {
+					COORD_QUADRANTS[bit] = quad;
+				}
+			}
+		}
+	}
+
+	private static long[] linesIntersecting(long bits) {
+		long[] lines = new long[WINNING_MASKS.length];
+		int count = 0;
+		for (long mask : WINNING_MASKS) {
+			if ((mask & bits) != 0) {
+				lines[count++] = mask;
+			}
+		}
+		return Arrays.copyOf(lines, count);
+	}
+
+	/**
+	 * SELECT_IN_BYTE[(b << 3) | k] is the position of the k-th set bit of the byte b
+	 */
+	private static final byte[] SELECT_IN_BYTE = new byte[256 * 8];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int k = 0;
+			for (int bit = 0; bit < 8; bit++) {
+				if ((b & (1 << bit)) != 0) {
+					SELECT_IN_BYTE[(b << 3) | k++] = (byte) bit;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bits of the 36 coordinates of the board
+	 */
+	private static final long BOARD_MASK = 0xFFFFFFFFFL;
+
 	/**
 	 * Constructor for conversion of PentagoBoardState to a PentagoBitBoard
 	 * @param board
 	 */
 	PentagoBitBoard(PentagoBoardState board) {
 
-		this.pieces = new long[2];
-
 		// Get the pieces
 		for(int x = 0; x < BOARD_SIZE; x++) {
 			for(int y = 0; y < BOARD_SIZE; y++) {
 
 				//Shift the last iteration's pieces left
-				this.pieces[BLACK] = this.pieces[BLACK] << 1;
-				this.pieces[WHITE] = this.pieces[WHITE] << 1;
+				this.black = this.black << 1;
+				this.white = this.white << 1;
 
 				PentagoBoardState.Piece p = board.getPieceAt(x, y);
 				if(p == PentagoBoardState.Piece.BLACK) {
-					this.pieces[BLACK] = this.pieces[BLACK] | 1;
+					this.black = this.black | 1;
 				} else if (p == PentagoBoardState.Piece.WHITE) {
-					this.pieces[WHITE] = this.pieces[WHITE] | 1;
+					this.white = this.white | 1;
 				}
 
 			}
@@ -220,15 +455,17 @@ public class PentagoBitBoard {
 		} else {
 			this.winner = (byte) board.getWinner();
 		}
+
+		this.key = computeKey(this.white, this.black, this.turnPlayer);
 	}
 
 
 	/**
 	 * Creates a blank PentagoBitBoard for debugging purposes
 	 */
-	private PentagoBitBoard() {
-		this.pieces = new long[2];
+	PentagoBitBoard() {
 		this.winner = NOBODY;
+		this.key = computeKey(this.white, this.black, this.turnPlayer);
 	}
 
 	/**
@@ -236,9 +473,9 @@ public class PentagoBitBoard {
 	 * @param board Existing board
 	 */
 	private PentagoBitBoard(PentagoBitBoard board) {
-		this.pieces = new long[2];
-		this.pieces[0] = board.pieces[0];
-		this.pieces[1] = board.pieces[1];
+		this.white = board.white;
+		this.black = board.black;
+		this.key = board.key;
 		this.winner = board.winner;
 		this.turnPlayer = board.turnPlayer;
 		this.turnNumber = board.turnNumber;
@@ -250,252 +487,554 @@ public class PentagoBitBoard {
 	}
 
 	/**
-	 * Creates a PentagoBitBoard with preset properties
-	 * @param pieces Black and white piece placements
-	 * @param winner Current winner of the state
-	 * @param turnPlayer Current player
-	 * @param turnNumber Current turn number
+	 * Sets this board to the state of another board without allocating
+	 * @param board The board to copy
 	 */
-	// For Debug
-	private PentagoBitBoard(long[] pieces, byte winner, byte turnPlayer, byte turnNumber) {
-		this.pieces = pieces;
-		this.winner = winner;
-		this.turnPlayer = turnPlayer;
-		this.turnNumber = turnNumber;
+	public void copyFrom(PentagoBitBoard board) {
+		this.white = board.white;
+		this.black = board.black;
+		this.key = board.key;
+		this.winner = board.winner;
+		this.turnPlayer = board.turnPlayer;
+		this.turnNumber = board.turnNumber;
+		this.undoDepth = 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PentagoBitBoard)) return false;
+
+		PentagoBitBoard board = (PentagoBitBoard) o;
+		return this.white == board.white && this.black == board.black && this.winner == board.winner
+				&& this.turnPlayer == board.turnPlayer && this.turnNumber == board.turnNumber;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(this.key);
+	}
+
+	/**
+	 * Gets a 64 bit key identifying the position, such that the same position reached by different orders of moves
+	 * has the same key. It is a Zobrist key: the xor of the keys of the content of each quadrant, each rotated by the
+	 * rotation of its quadrant, and of the key of the player to move. The key is updated by each move rather than
+	 * computed when requested.
+	 * @return The key of the position
+	 */
+	public long getPositionKey() {
+		return this.key;
+	}
+
+	/**
+	 * Computes the key of a position from all of its quadrants
+	 * @param white White piece placements
+	 * @param black Black piece placements
+	 * @param turnPlayer The player to move
+	 * @return The key of the position
+	 */
+	private static long computeKey(long white, long black, int turnPlayer) {
+		long key = turnPlayer == BLACK ? BLACK_TO_MOVE_KEY : 0;
+
+		for (int quad = 0; quad < NUM_QUADS; quad++) {
+			key ^= Long.rotateLeft(contentKey(white, black, quad), QUADRANT_KEY_ROTATIONS[quad]);
+		}
+
+		return key;
 	}
 
 	/**
-	 * Returns all legal moves as a long:
+	 * @param quad The quadrant
+	 * @return The key of the content of a quadrant, before it is rotated by the rotation of the quadrant
+	 */
+	private static long contentKey(long white, long black, int quad) {
+		return QUADRANT_KEYS[WHITE][quadrantPattern(white, quad)] ^ QUADRANT_KEYS[BLACK][quadrantPattern(black, quad)];
+	}
+
+	/**
+	 * Finds the symmetry of the board mapping this position to its canonical form, the smallest position by white then
+	 * black pieces among the 8 rotations and reflections of the position. Symmetric positions have the same canonical
+	 * form, and since a symmetry maps quadrants onto quadrants and winning masks onto winning masks, they have the same
+	 * outcome.
+	 * @return The transform to give to transform, transformMove and transformPieces
+	 */
+	public int getCanonicalTransform() {
+
+		long bestWhite = this.white;
+		long bestBlack = this.black;
+		int bestTransform = 0;
+
+		for (int transform = 1; transform < NUM_SYMMETRIES; transform++) {
+			long transformedWhite = transformPieces(this.white, transform);
+			if (transformedWhite > bestWhite) {
+				continue;
+			}
+
+			long transformedBlack = transformPieces(this.black, transform);
+			if (transformedWhite < bestWhite || transformedBlack < bestBlack) {
+				bestWhite = transformedWhite;
+				bestBlack = transformedBlack;
+				bestTransform = transform;
+			}
+		}
+
+		return bestTransform;
+	}
+
+	/**
+	 * Gets the key of the canonical form of the position, such that symmetric positions have the same key. Unlike
+	 * getPositionKey, the key is computed on each call.
+	 * @return The key of the canonical form of the position
+	 */
+	public long getCanonicalKey() {
+		int transform = getCanonicalTransform();
+		return computeKey(transformPieces(this.white, transform), transformPieces(this.black, transform), this.turnPlayer);
+	}
+
+	/**
+	 * Creates the board symmetric to this one by a transform
+	 * @param transform The transform, see transformPieces
+	 * @return The transformed board
+	 */
+	public PentagoBitBoard transform(int transform) {
+		return new PentagoBitBoard(transformPieces(this.white, transform), transformPieces(this.black, transform),
+				this.winner, this.turnPlayer, this.turnNumber);
+	}
+
+	/**
+	 * Applies a rotation or reflection of the board to pieces. Each of the 8 symmetries of the board is a combination
+	 * of a transposition, a mirror of the columns and a mirror of the rows, applied in this order:
 	 * <pre>
-	 *|                       |P|     |                                    |
-	 *|                       |I|4 bit|                                    |
-	 *|        unused         |D|quads|       36 bits for coordinate       |
-	 *----------------------------------------------------------------------
-	 *|.......................|p|sq|lq|cccccccccccccccccccccccccccccccccccc|
+	 * transform = TRANSPOSE | MIRROR_COLUMNS | MIRROR_ROWS
 	 * </pre>
-	 * 	Note that sq must be less than lq
-	 *
-	 * @param availableSpots Specifies which locations on the board this method should generate moves for
-	 * @param quadrantSwaps Specifies the domain of quadrant swaps that should be used for move generation
-	 * @param intialSize Provide an expected size of moves such that the returned ArrayList is populated more efficiently
-	 *
-	 * @return All legal moves constrained to positions in availableSwaps and swaps in quadrantSwaps as longs
+	 * Each step swaps groups of bits (delta swaps) such that no step goes through the squares one by one.
+	 * @param pieces The pieces of a player, or the coordinate of a move
+	 * @param transform The transform
+	 * @return The transformed pieces
 	 */
-	ArrayList<Long> getAllLegalMoves(long availableSpots, byte[][] quadrantSwaps, int intialSize) {
+	public static long transformPieces(long pieces, int transform) {
 
-		ArrayList<Long> moves = new ArrayList<>(intialSize);
+		if ((transform & TRANSPOSE) != 0) {
+			// Transpose each quadrant in place then swap the top right and bottom left quadrants
+			pieces = deltaSwap(pieces, TRANSPOSE_MASK_5, 5);
+			pieces = deltaSwap(pieces, TRANSPOSE_MASK_10, 10);
+			pieces = swapQuadrants(pieces, SWAP_INDEX[1][2]);
+		}
 
-		long mask = 1;
-		for(int i = 0; i < BOARD_SIZE * BOARD_SIZE; i++) {
-			if((availableSpots & mask) == mask) {
-				for(byte[] quadrantSwap : quadrantSwaps) {
-					moves.add(createBitMove(turnPlayer, quadrantSwap[0], quadrantSwap[1], mask));
-				}
-			}
-			mask = mask << 1;
+		if ((transform & MIRROR_COLUMNS) != 0) {
+			// Swap the left and right half of each row then reverse each half
+			pieces = deltaSwap(pieces, ROW_SQUARES * 0b111, 3);
+			pieces = deltaSwap(pieces, ROW_SQUARES * 0b1001, 2);
 		}
 
-		return moves;
+		if ((transform & MIRROR_ROWS) != 0) {
+			// Swap the top and bottom half of the board then reverse the rows of each half
+			pieces = deltaSwap(pieces, BOARD_MASK >>> 18, 18);
+			pieces = deltaSwap(pieces, 0b111111L << 18 | 0b111111L, 12);
+		}
+
+		return pieces;
 	}
 
 	/**
-	 * Efficiently attempts to play a random position on the board until a legal placement is found then selects
-	 * a random quadrant swap.
-	 *
-	 * @return A random legal move
+	 * Applies a rotation or reflection of the board to a move, such that playing the transformed move on the
+	 * transformed board gives the transformed result of playing the move on the board.
+	 * @param move The move
+	 * @param transform The transform, see transformPieces
+	 * @return The transformed move
+	 */
+	public static long transformMove(long move, int transform) {
+		int aQuad = transformQuadrant(getAQuad(move), transform);
+		int bQuad = transformQuadrant(getBQuad(move), transform);
+		long coord = transformPieces(getBitCoord(move), transform);
+
+		return createBitMove(getPlayer(move), Math.min(aQuad, bQuad), Math.max(aQuad, bQuad), coord);
+	}
+
+	/**
+	 * @param transform A transform, see transformPieces
+	 * @return The transform undoing it
+	 */
+	public static int inverseTransform(int transform) {
+		if ((transform & TRANSPOSE) == 0) {
+			return transform;
+		}
+
+		// Transposing turns a mirror of the columns into a mirror of the rows and the other way around
+		return TRANSPOSE | (transform & MIRROR_COLUMNS) << 1 | (transform & MIRROR_ROWS) >> 1;
+	}
+
+	/**
+	 * @param quad A quadrant, where bit 1 is set for the bottom quadrants and bit 0 for the right quadrants
+	 * @param transform The transform, see transformPieces
+	 * @return The quadrant the transform moves the quadrant to
 	 */
-	public long getRandomMove() {
+	private static int transformQuadrant(int quad, int transform) {
+		if ((transform & TRANSPOSE) != 0) {
+			quad = (quad & 1) << 1 | quad >> 1;
+		}
+		if ((transform & MIRROR_COLUMNS) != 0) {
+			quad ^= 1;
+		}
+		if ((transform & MIRROR_ROWS) != 0) {
+			quad ^= 2;
+		}
+		return quad;
+	}
 
-		long availableSpots = ~(this.pieces[WHITE] | this.pieces[BLACK]);
+	/**
+	 * Swaps the bits selected by mask with the bits delta positions above them
+	 * @param bits The bit string
+	 * @param mask The lower bit of each pair to swap
+	 * @param delta Distance between the bits of a pair
+	 * @return The bit string with the pairs swapped
+	 */
+	private static long deltaSwap(long bits, long mask, int delta) {
+		long t = ((bits >>> delta) ^ bits) & mask;
+		return bits ^ t ^ (t << delta);
+	}
+
+	/**
+	 * Gathers the 9 squares of a quadrant into the lowest bits, row by row
+	 * @param pieces The pieces of a player
+	 * @param quad The quadrant
+	 * @return The pattern of the pieces in the quadrant
+	 */
+	private static int quadrantPattern(long pieces, int quad) {
+		int offset = Long.numberOfTrailingZeros(QUADRANT_MASKS[quad]);
+		long bits = pieces >>> offset;
+		return (int) ((bits & 0b111) | ((bits >>> 3) & 0b111000) | ((bits >>> 6) & 0b111000000));
+	}
 
-		long move;
-		// Pick a random empty coordinate
-		do {
-			move = 1L << rand.nextInt(BOARD_SIZE * BOARD_SIZE);
-		} while((move & availableSpots) != move);
+	/**
+	 * Computes the change of the key when two quadrants are swapped: the keys of both quadrants are removed then added
+	 * back with the rotation of the other quadrant.
+	 * @param white White piece placements before the swap
+	 * @param black Black piece placements before the swap
+	 * @param swap Index of the swap in QUAD_SWAPS
+	 * @return The value to xor with the key of the position
+	 */
+	private static long swapKeyDelta(long white, long black, int swap) {
+		int smallerQuad = QUAD_SWAPS[swap][0];
+		int largerQuad = QUAD_SWAPS[swap][1];
 
-		// Pick random quadrant swap
-		byte[] swaps = QUAD_SWAPS[rand.nextInt(QUAD_SWAPS.length)];
+		long both = contentKey(white, black, smallerQuad) ^ contentKey(white, black, largerQuad);
 
-		int largerQuad = swaps[1];
-		int smallerQuad = swaps[0];
+		return Long.rotateLeft(both, QUADRANT_KEY_ROTATIONS[smallerQuad]) ^ Long.rotateLeft(both, QUADRANT_KEY_ROTATIONS[largerQuad]);
+	}
 
-		return ((((((long)turnPlayer << 2) | smallerQuad) << 2) | largerQuad) << 36) | move;
+	/**
+	 * @param coord Coordinate of a piece
+	 * @param player Player of the piece
+	 * @return The value to xor with the key of the position to add or remove the piece
+	 */
+	private static long pieceKey(long coord, int player) {
+		int quad = COORD_QUADRANTS[Long.numberOfTrailingZeros(coord)];
+		return Long.rotateLeft(QUADRANT_KEYS[player][quadrantPattern(coord, quad)], QUADRANT_KEY_ROTATIONS[quad]);
 	}
 
+	/**
+	 * Computes the key of the position after a move without playing it
+	 * @param move A legal move
+	 * @return The key the position would have after the move
+	 */
+	public long getChildKey(long move) {
+		long coord = getBitCoord(move);
+		int swap = SWAP_INDEX[getAQuad(move)][getBQuad(move)];
+		int player = getPlayer(move);
+
+		long placedWhite = this.white | (coord & (player - 1L));
+		long placedBlack = this.black | (coord & -(long) player);
+
+		return this.key ^ pieceKey(coord, player) ^ swapKeyDelta(placedWhite, placedBlack, swap) ^ BLACK_TO_MOVE_KEY;
+	}
 
 	/**
-	 * Generates all legal moves available in this state ignoring moves that are symmetric:
-	 * Symmetry is identified by examining the number of identical quadrants to determine
-	 * a smaller subset of all legal moves to generate
+	 * Creates a PentagoBitBoard with preset properties
+	 * @param white White piece placements
+	 * @param black Black piece placements
+	 * @param winner Current winner of the state
+	 * @param turnPlayer Current player
+	 * @param turnNumber Current turn number
+	 */
+	private PentagoBitBoard(long white, long black, byte winner, byte turnPlayer, byte turnNumber) {
+		this.white = white;
+		this.black = black;
+		this.winner = winner;
+		this.turnPlayer = turnPlayer;
+		this.turnNumber = turnNumber;
+		this.key = computeKey(this.white, this.black, this.turnPlayer);
+	}
+
+	/**
+	 * Picks a move uniformly among all legal (placement, quadrant swap) pairs. A single random number selects both the
+	 * empty coordinate and the swap, the coordinate is found by selecting the k-th empty bit of the board.
+	 *
+	 * @param random The random generator of the calling thread
+	 * @return A random legal move
+	 */
+	public long getRandomMove(FastRandom random) {
+		return randomMove(this.white | this.black, this.turnPlayer, random);
+	}
+
+
+	/**
+	 * Generates all legal moves available in this state ignoring moves that are symmetric, see getNonSymmetricMoves
 	 *
 	 * @return All legal moves ignoring symmetric moves
 	 */
 	public ArrayList<Long> getAllLegalNonSymmetricMoves() {
 
-		if (winner != NOBODY) {
-			return new ArrayList<>(1);
-		}
-
-		// Identify which quadrants are identical
-		ArrayList<ArrayList<Byte>> equalQuadrants = partitionQuadrants();
+		long[] buffer = new long[MAX_MOVES];
+		int count = getNonSymmetricMoves(buffer);
 
-		ArrayList<Long> moves;
+		ArrayList<Long> moves = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			moves.add(buffer[i]);
+		}
 
-		byte[][] swaps = QUAD_SWAPS;
-		long placements = ~(this.pieces[WHITE] | this.pieces[BLACK]);
-		int initialCapacity = ((BOARD_SIZE * BOARD_SIZE) - this.turnNumber) * swaps.length;
+		return moves;
+	}
 
-		switch (equalQuadrants.size()) {
+	/**
+	 * Generates the legal moves available in this state such that each position reached is only reached by one move,
+	 * see getUniqueMoves
+	 *
+	 * @return The moves leading to distinct positions
+	 */
+	public ArrayList<Long> getAllLegalUniqueMoves() {
 
-			case 1:
-				// 4 identical quadrants (Q0=Q1=Q2=Q3):
-				// Try a move for each free spot in Q0 and just swap Q1 -> Q2
+		long[] buffer = new long[MAX_MOVES];
+		int count = getUniqueMoves(buffer, new long[MAX_MOVES]);
 
-				byte Q0 = equalQuadrants.get(0).get(0);
+		ArrayList<Long> moves = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			moves.add(buffer[i]);
+		}
 
-				placements = placements & QUADRANT_MASKS[Q0];
-				swaps = new byte[][]{{1, 2}};
-				initialCapacity = (QUAD_SIZE * QUAD_SIZE) * swaps.length;
+		return moves;
+	}
 
-				moves = getAllLegalMoves(placements, swaps, initialCapacity);
-				break;
+	/**
+	 * Writes the moves of getNonSymmetricMoves into a buffer, without the moves leading to the same position as a move
+	 * generated before them. Different placements and swaps often lead to the same position, for instance when the
+	 * swapped quadrants are identical once the piece is placed.
+	 *
+	 * Two moves can only lead to the same position if two quadrants hold the same pieces except for at most one piece,
+	 * which is rare past the opening, so the moves are only compared when such quadrants exist.
+	 * The moves are compared by the key of the position they lead to: the keys are sorted with the index of their move
+	 * in the lowest bits, such that the moves leading to the same position end up next to each other, the first
+	 * generated move first. Moves with equal keys are only dropped if they lead to the same pieces.
+	 *
+	 * @param moves Buffer receiving the moves, must hold at least MAX_MOVES moves
+	 * @param keys Buffer used to sort the keys of the positions reached, must hold at least MAX_MOVES keys
+	 * @return The number of moves written to the buffer
+	 */
+	public int getUniqueMoves(long[] moves, long[] keys) {
 
-			case 2:
-				// 2 pairs of identical quadrants (Q0=Q2, Q1=Q3):
-				// Try a move for each free spot in Q0 and Q1 and do all the swaps
-				if (equalQuadrants.get(0).size() == 2) {
+		int numMoves = getNonSymmetricMoves(moves);
+		if (numMoves < 2 || !hasNearlyIdenticalQuadrants()) {
+			return numMoves;
+		}
 
-					Q0 = equalQuadrants.get(0).get(0);
-					byte Q1 = equalQuadrants.get(1).get(0);
+		for (int i = 0; i < numMoves; i++) {
+			keys[i] = (getChildKey(moves[i]) & ~MOVE_INDEX_MASK) | i;
+		}
 
-					placements = placements & (QUADRANT_MASKS[Q0] | QUADRANT_MASKS[Q1]);
-					initialCapacity = (QUAD_SIZE * QUAD_SIZE) * 2 * swaps.length;
+		Arrays.sort(keys, 0, numMoves);
 
-					moves = getAllLegalMoves(placements, swaps, initialCapacity);
-				}
-				// 1 unique, 3 identical quadrants(Q0, Q1=Q2=Q3):
-				// Try a move for each free spot in Q0 and do a swap for Q0 -> Q1, Q0 -> Q2, Q0 -> Q2, Q1 -> Q2
-				// And try a move for each free spot in Q1 and do all the swaps
-				else {
-
-					ArrayList<Byte> uniqueQuadrant = equalQuadrants.get(0).size() < equalQuadrants.get(1).size() ? equalQuadrants.get(0) : equalQuadrants.get(1);
-					ArrayList<Byte> identicalQuadrants = equalQuadrants.get(0).size() > equalQuadrants.get(1).size() ? equalQuadrants.get(0) : equalQuadrants.get(1);
-
-					// Generate moves for the unique quadrant
-					long placementsQ0 = placements & QUADRANT_MASKS[uniqueQuadrant.get(0)];
-					byte[][] swapsQ0 = new byte[4][2];
-					int initialCapacityQ0 = (QUAD_SIZE * QUAD_SIZE) * swaps.length;
-
-					Q0 = uniqueQuadrant.get(0);
-
-					// Generate first 3 swaps
-					for(int i = 0; i < identicalQuadrants.size(); i++) {
-						byte quadrant = identicalQuadrants.get(i);
-						byte largerQuadrant = quadrant > Q0 ? quadrant : Q0;
-						byte smallerQuadrant = quadrant < Q0 ? quadrant : Q0;
-						swapsQ0[i][0] = smallerQuadrant;
-						swapsQ0[i][1] = largerQuadrant;
-					}
+		// Clear the moves leading to the same position as the first move with the same key
+		int first = (int) (keys[0] & MOVE_INDEX_MASK);
+		for (int i = 1; i < numMoves; i++) {
+			int index = (int) (keys[i] & MOVE_INDEX_MASK);
 
-					// Generate last swap
-					byte largerQuadrant = identicalQuadrants.get(0) > identicalQuadrants.get(1) ? identicalQuadrants.get(0) : identicalQuadrants.get(1);
-					byte smallerQuadrant = identicalQuadrants.get(0) < identicalQuadrants.get(1) ? identicalQuadrants.get(0) : identicalQuadrants.get(1);
-					swapsQ0[swapsQ0.length-1][0] = smallerQuadrant;
-					swapsQ0[swapsQ0.length-1][1] = largerQuadrant;
+			if ((keys[i] & ~MOVE_INDEX_MASK) != (keys[i - 1] & ~MOVE_INDEX_MASK)) {
+				first = index;
+			}
+			else if (childPieces(this.white, WHITE, moves[index]) == childPieces(this.white, WHITE, moves[first])
+					&& childPieces(this.black, BLACK, moves[index]) == childPieces(this.black, BLACK, moves[first])) {
+				moves[index] = 0;
+			}
+		}
 
-					moves = getAllLegalMoves(placementsQ0, swapsQ0, initialCapacityQ0);
+		int count = 0;
+		for (int i = 0; i < numMoves; i++) {
+			if (moves[i] != 0) {
+				moves[count++] = moves[i];
+			}
+		}
 
-					// Next generate moves for one of the 3 identical quadrants
-					long placementsQ1 = placements & QUADRANT_MASKS[identicalQuadrants.get(0)];
-					byte[][] swapsQ1 = swaps;
-					int initialCapacityQ1 = (QUAD_SIZE * QUAD_SIZE) * swapsQ1.length;
+		return count;
+	}
 
-					moves.addAll(getAllLegalMoves(placementsQ1, swapsQ1, initialCapacityQ1));
-				}
+	/**
+	 * Two moves lead to the same position only if two quadrants are identical before the moves, or once the piece is
+	 * placed.
+	 * @return Whether two quadrants are identical except for at most one piece of the current player
+	 */
+	private boolean hasNearlyIdenticalQuadrants() {
+		long own = getPieces(this.turnPlayer);
+		long opponent = getPieces(1 - this.turnPlayer);
 
-				break;
+		for (byte[] swap : QUAD_SWAPS) {
+			int ownDiff = quadrantPattern(own, swap[0]) ^ quadrantPattern(own, swap[1]);
+			int opponentDiff = quadrantPattern(opponent, swap[0]) ^ quadrantPattern(opponent, swap[1]);
 
-			// Default is to return all legal moves as usual
-			default:
-				moves = getAllLegalMoves(placements, swaps, initialCapacity);
-				break;
+			if (opponentDiff == 0 && Integer.bitCount(ownDiff) <= 1) {
+				return true;
+			}
 		}
 
-		return moves;
+		return false;
 	}
 
 	/**
-	 * Splits quadrants into partitions where quadrants in the same partition are identical.
-	 * Useful for identifying symmetric moves.
+	 * @param pieces The pieces of a player
+	 * @param owner The player
+	 * @param move A move
+	 * @return The pieces of the player after the move
+	 */
+	private static long childPieces(long pieces, int owner, long move) {
+		long placed = getPlayer(move) == owner ? getBitCoord(move) : 0;
+		return swapQuadrants(pieces | placed, SWAP_INDEX[getAQuad(move)][getBQuad(move)]);
+	}
+
+	/**
+	 * Writes all legal moves available in this state ignoring moves that are symmetric into a buffer. Symmetry is
+	 * identified by examining the number of identical quadrants to determine a smaller subset of all legal moves to
+	 * generate. No memory is allocated such that the buffer can be reused by the caller.
 	 *
-	 * Examples:
-     * <pre>
-     * Q0 = Q1 =/= Q2 = Q3      Q0 =/= Q1 = Q2 = Q3      Q0 = Q1 = Q2 = Q3
-     * {                        {                        {
-     *     {0, 1},                     {0},                     {0, 1, 2, 3}
-     *     {2, 3}                      {1, 2, 3}         }
-     * }                        }
-     * </pre>
+	 * Moves are longs:
+	 * <pre>
+	 *|                       |P|     |                                    |
+	 *|                       |I|4 bit|                                    |
+	 *|        unused         |D|quads|       36 bits for coordinate       |
+	 *----------------------------------------------------------------------
+	 *|.......................|p|sq|lq|cccccccccccccccccccccccccccccccccccc|
+	 * </pre>
+	 * 	Note that sq must be less than lq
 	 *
-	 * @return An Array List of partitions where each partition contains identical quadrants.
+	 * @param moves Buffer receiving the moves, must hold at least MAX_MOVES moves
+	 * @return The number of moves written to the buffer
 	 */
-	private ArrayList<ArrayList<Byte>> partitionQuadrants() {
+	public int getNonSymmetricMoves(long[] moves) {
+
+		if (winner != NOBODY) {
+			return 0;
+		}
+
+		long placements = ~(this.white | this.black) & BOARD_MASK;
 
-		// Put each quadrant (the two piece longs) into a list
-		ArrayList<ArrayList<Long>> quadrants = new ArrayList<>(NUM_QUADS);
+		// Find the smallest quadrant identical to each quadrant (2 bits per quadrant) and the number of quadrants
+		// identical to each of those (4 bits per quadrant)
+		int representatives = 0;
+		int partitionSizes = 0;
+		int numPartitions = 0;
 
-		for(int i = 0; i < NUM_QUADS; i++) {
-			quadrants.add(new ArrayList<>());
-			for(long pieceLong : this.pieces) {
-				// Shift all quadrants to the same bit position
-				quadrants.get(i).add(pieceLong >> QUADRANT_BIT_SHIFTS[i][NUM_QUADS-1]);
+		for (int quad = 0; quad < NUM_QUADS; quad++) {
+			int representative = quad;
+			for (int other = 0; other < quad; other++) {
+				if (identicalQuadrants(other, quad)) {
+					representative = other;
+					break;
+				}
+			}
+
+			if (representative == quad) {
+				numPartitions++;
 			}
+			representatives |= representative << (2 * quad);
+			partitionSizes += 1 << (4 * representative);
 		}
 
-		// Partition quadrants into buckets where they are equal
-		HashMap<ArrayList<Long>, ArrayList<Byte>> equalQuadrants = new HashMap<>();
+		// 4 identical quadrants (Q0=Q1=Q2=Q3):
+		// Try a move for each free spot in Q0 and just swap Q1 -> Q2
+		if (numPartitions == 1) {
+			return addMoves(moves, 0, placements & QUADRANT_MASKS[0], SWAP_INDEX[1][2], 1);
+		}
+
+		if (numPartitions == 2) {
 
-		for(byte j = 0; j < NUM_QUADS; j++) {
+			// The partition of Q0 and the other partition
+			int otherPartition = 0;
+			while (((representatives >> (2 * otherPartition)) & 0b11) == 0) {
+				otherPartition++;
+			}
 
-			// Found a similar quadrant, add quadrant number to existing partition
-			if(equalQuadrants.containsKey(quadrants.get(j))) {
-				equalQuadrants.get(quadrants.get(j)).add(j);
+			// 2 pairs of identical quadrants (Q0=Q2, Q1=Q3):
+			// Try a move for each free spot in Q0 and Q1 and do all the swaps
+			if ((partitionSizes & 0xF) == 2) {
+				placements &= QUADRANT_MASKS[0] | QUADRANT_MASKS[otherPartition];
+				return addMoves(moves, 0, placements, ALL_SWAPS, NUM_SWAPS);
 			}
-			// New unique quadrant, create a new partition with the quadrant number
-			else {
-				ArrayList<Byte> newPartition = new ArrayList<>();
-				newPartition.add(j);
-				equalQuadrants.put(quadrants.get(j), newPartition);
+
+			// 1 unique, 3 identical quadrants(Q0, Q1=Q2=Q3):
+			// Try a move for each free spot in Q0 and do a swap for Q0 -> Q1, Q0 -> Q2, Q0 -> Q3, Q1 -> Q2
+			// And try a move for each free spot in Q1 and do all the swaps
+			int unique = (partitionSizes & 0xF) == 1 ? 0 : otherPartition;
+			int identical = unique == 0 ? otherPartition : 0;
+
+			// The swaps of the unique quadrant with each identical quadrant, then of the first two identical quadrants
+			int swaps = 0;
+			int secondIdentical = -1;
+			for (int quad = NUM_QUADS - 1; quad >= 0; quad--) {
+				if (quad != unique) {
+					swaps = (swaps << SWAP_BITS) | SWAP_INDEX[unique][quad];
+					if (quad != identical) {
+						secondIdentical = quad;
+					}
+				}
 			}
+			swaps |= SWAP_INDEX[identical][secondIdentical] << (3 * SWAP_BITS);
+
+			int count = addMoves(moves, 0, placements & QUADRANT_MASKS[unique], swaps, 4);
+			return addMoves(moves, count, placements & QUADRANT_MASKS[identical], ALL_SWAPS, NUM_SWAPS);
 		}
 
-		return new ArrayList<>(equalQuadrants.values());
+		// Default is to return all legal moves as usual
+		return addMoves(moves, 0, placements, ALL_SWAPS, NUM_SWAPS);
 	}
 
 	/**
-	 * Swaps two quadrants on the board. Note that smallerQuad < largerQuad. No legality is checked on this for efficiency
-	 *
-	 * @param pieces Pieces long ints to swap
-	 * @param smallerQuad First quadrant to swap
-	 * @param largerQuad Second quadrant to swap
+	 * Checks if two quadrants are identical. As the quadrants were compared when they were partitioned in lists, the
+	 * pieces are shifted such that the quadrant takes the place of the last quadrant, without masking the pieces of the
+	 * quadrants shifted with it.
+	 * @param quad A quadrant
+	 * @param other A quadrant greater than quad
+	 * @return true if the quadrants are considered identical
 	 */
-	private void swapQuadrants(long[] pieces, int smallerQuad, int largerQuad) {
+	private boolean identicalQuadrants(int quad, int other) {
+		int shift = QUADRANT_BIT_SHIFTS[quad][NUM_QUADS - 1];
+		int otherShift = QUADRANT_BIT_SHIFTS[other][NUM_QUADS - 1];
 
-		for(int i = 0; i < pieces.length; i++) {
-			// Shift the smaller quad down to make for the new larger quad
+		return (this.white >>> shift) == (this.white >>> otherShift) && (this.black >>> shift) == (this.black >>> otherShift);
+	}
 
-			long newLarge = (pieces[i] & QUADRANT_MASKS[smallerQuad]) >> QUADRANT_BIT_SHIFTS[smallerQuad][largerQuad];
+	/**
+	 * Writes a move for each combination of a placement and a swap into a buffer. The placements are ordered from the
+	 * lowest bit, and the swaps in the given order.
+	 * @param moves Buffer receiving the moves
+	 * @param count Number of moves already in the buffer
+	 * @param placements Coordinates where a piece can be placed
+	 * @param swaps Indices in QUAD_SWAPS of the swaps, packed SWAP_BITS bits each starting from the lowest bits
+	 * @param numSwaps Number of swaps packed in swaps
+	 * @return The number of moves in the buffer
+	 */
+	private int addMoves(long[] moves, int count, long placements, int swaps, int numSwaps) {
 
-			// Shift the larger quad up to make the new smaller quad
-			long newSmall = (pieces[i] & QUADRANT_MASKS[largerQuad]) << QUADRANT_BIT_SHIFTS[smallerQuad][largerQuad];
+		long player = setPlayer(0, this.turnPlayer);
 
-			// Perform the update
-			long newConfig = newLarge | newSmall;
-			long updateMask = ~ (QUADRANT_MASKS[smallerQuad] | QUADRANT_MASKS[largerQuad]);
+		while (placements != 0) {
+			long coord = Long.lowestOneBit(placements);
+			placements ^= coord;
 
-			pieces[i] = (pieces[i] & updateMask) | newConfig;
+			for (int i = 0; i < numSwaps; i++) {
+				int swap = (swaps >>> (i * SWAP_BITS)) & SWAP_INDEX_MASK;
+				moves[count++] = SWAP_MOVE_BITS[swap] | player | coord;
+			}
 		}
+
+		return count;
 	}
 
 	/**
@@ -503,14 +1042,13 @@ public class PentagoBitBoard {
 	 * @return  Bit sting with 1 everywhere where a piece could be placed
 	 */
 	long getAllAvailibleSpots() {
-		return ~(pieces[0] | pieces[1]);
+		return ~(this.white | this.black);
 	}
 
 
 	/**
-	 * Applies a move to the current board state. Note that legality is not checked here for efficiency
-	 * as it is assumed that the move applied was generated from getAllLegalNonSymmetricMoves() or similar legal
-	 * move generator.
+	 * Applies a move to the current board state after checking that it is legal. Used for moves coming from outside of
+	 * the search, the moves of the search come from the move generators and are applied with makeMove.
 	 *
 	 * @param move The next move to play
 	 */
@@ -518,47 +1056,112 @@ public class PentagoBitBoard {
 
 		if (!isLegalMove(move)) { throw new IllegalArgumentException("Invalid move. Move: " + toPrettyString(move)); }
 
-		//Extract info from move
-		int player = getPlayer(move);
-		int aQuad = getAQuad(move);
-		int bQuad = getBQuad(move);
+		makeMove(move);
+	}
+
+	/**
+	 * Applies a move to the current board state and pushes its undo record. Note that legality is not checked here
+	 * for efficiency as it is assumed that the move applied was generated from getNonSymmetricMoves() or similar legal
+	 * move generator.
+	 *
+	 * The winner is updated incrementally: when the game was not over before the move, only the winning masks touching
+	 * the swapped quadrants or the placed piece can have been completed by the move.
+	 *
+	 * @param move The next move to play
+	 */
+	public void makeMove(long move) {
+
+		int index = this.undoDepth * RECORD_SIZE;
+		if (index == this.undoStack.length) {
+			growUndoStack();
+		}
+
+		byte previousWinner = this.winner;
+
+		this.undoStack[index] = this.key;
+		this.undoStack[index + 1] = (move & RECORD_MOVE_MASK)
+				| (long) (previousWinner & 0xFF) << RECORD_WINNER_SHIFT
+				| (long) this.turnNumber << RECORD_TURN_NUMBER_SHIFT
+				| (long) this.turnPlayer << RECORD_TURN_PLAYER_SHIFT;
+		this.undoDepth++;
+
 		long coord = getBitCoord(move);
+		int swap = SWAP_INDEX[getAQuad(move)][getBQuad(move)];
 
-		//Place the coordinate based on player
-		this.pieces[player] = this.pieces[player] | coord;
-		this.swapQuadrants(this.pieces, aQuad, bQuad);
+		// The player selects which pieces receive the coordinate without branching:
+		// player - 1 is all ones for white and -player is all ones for black
+		int player = getPlayer(move);
+		this.white |= coord & (player - 1L);
+		this.black |= coord & -(long) player;
+		this.key ^= pieceKey(coord, player) ^ swapKeyDelta(this.white, this.black, swap) ^ BLACK_TO_MOVE_KEY;
+
+		this.white = swapQuadrants(this.white, swap);
+		this.black = swapQuadrants(this.black, swap);
 		this.turnNumber++;
 
-		this.updateWinner();
+		if (previousWinner == NOBODY) {
+			long placed = swapQuadrants(coord, swap);
+			this.updateWinner(hasFiveInARow(getPieces(this.turnPlayer), swap, placed),
+					hasFiveInARow(getPieces(1 - this.turnPlayer), swap, 0));
+		} else {
+			this.updateWinner();
+		}
 
 		this.turnPlayer = (byte) (1 - this.turnPlayer);
-
 	}
 
+	/**
+	 * Makes room on the undo stack for the moves that can still be made until the end of the game
+	 */
+	private void growUndoStack() {
+		int remainingMoves = Math.max(1, MAX_TURNS - this.turnNumber);
+		this.undoStack = Arrays.copyOf(this.undoStack, (this.undoDepth + remainingMoves) * RECORD_SIZE);
+	}
 
 	/**
-	 * Reverses the effect of a recently placed move. Note that legality is not checked for efficiency as it is assumed
-	 * that the move to reverse was most recently applied
+	 * Reverses the effect of the most recent move after checking that it is the move given. Used for moves coming from
+	 * outside of the search, see unmakeMove.
 	 * @param move the move to undo
 	 */
-	void undoMove(long move) {
+	public void undoMove(long move) {
 
-		//Extract info from move
-		int player = getPlayer(move);
-		int aQuad = getAQuad(move);
-		int bQuad = getBQuad(move);
-		long coord = getBitCoord(move);
+		if (this.undoDepth == 0) { throw new IllegalStateException("No move to undo. Move: " + toPrettyString(move)); }
+
+		long lastMove = this.undoStack[(this.undoDepth - 1) * RECORD_SIZE + 1] & RECORD_MOVE_MASK;
+		if (lastMove != move) { throw new IllegalArgumentException("Not the last move made. Move: " + toPrettyString(move)); }
+
+		unmakeMove();
+	}
 
-		// Re-swap the quadrants
-		this.swapQuadrants(this.pieces, aQuad, bQuad);
+	/**
+	 * Reverses the effect of the most recent makeMove by popping its undo record. A quadrant swap is its own inverse,
+	 * so the quadrants are swapped again before the placement is removed, the key, winner and turn are restored from
+	 * the record. Note that the stack is not checked, a move must have been made since the board was created or copied.
+	 */
+	public void unmakeMove() {
 
-		// Undo the placement
-		this.pieces[player] = this.pieces[player] & ~coord;
-		this.turnNumber--;
+		this.undoDepth--;
+		int index = this.undoDepth * RECORD_SIZE;
+		long record = this.undoStack[index + 1];
 
-		this.updateWinner();
+		long coord = getBitCoord(record);
+		int swap = SWAP_INDEX[getAQuad(record)][getBQuad(record)];
 
-		this.turnPlayer = (byte) (1 - this.turnPlayer);
+		// Only the player of the move has a piece on the coordinate
+		this.white = swapQuadrants(this.white, swap) & ~coord;
+		this.black = swapQuadrants(this.black, swap) & ~coord;
+
+		this.key = this.undoStack[index];
+		this.winner = (byte) (record >>> RECORD_WINNER_SHIFT);
+		this.turnNumber = (byte) ((record >>> RECORD_TURN_NUMBER_SHIFT) & 0x3F);
+		this.turnPlayer = (byte) ((record >>> RECORD_TURN_PLAYER_SHIFT) & 1);
+	}
+
+	/**
+	 * @return The number of moves that can be unmade, the moves made since the board was created or copied
+	 */
+	public int getUndoDepth() {
+		return this.undoDepth;
 	}
 
 	/**
@@ -567,6 +1170,9 @@ public class PentagoBitBoard {
 	 * @return  True if the move is legal for the current board state
 	 */
 	public boolean isLegalMove(long move) {
+		if (this.winner != NOBODY)
+			return false;
+
 		if (getAQuad(move) == getBQuad(move))
 			return false;
 
@@ -583,8 +1189,15 @@ public class PentagoBitBoard {
 	 * Checks if the board is in a winning configuration and updates the winner variable if so.
 	 */
 	private void updateWinner() {
-		boolean playerWin = checkWin(this.turnPlayer);
-		boolean otherWin = checkWin((byte) (1 - this.turnPlayer));
+		updateWinner(checkWin(this.turnPlayer), checkWin((byte) (1 - this.turnPlayer)));
+	}
+
+	/**
+	 * Updates the winner variable once the winning masks were checked
+	 * @param playerWin true if the current player has five pieces in a row
+	 * @param otherWin true if the other player has five pieces in a row
+	 */
+	private void updateWinner(boolean playerWin, boolean otherWin) {
 
 		this.winner = NOBODY;
 
@@ -604,7 +1217,7 @@ public class PentagoBitBoard {
 	 */
 	private boolean checkWin(byte turnPlayer) {
 		for(long mask: WINNING_MASKS) {
-			if((mask & this.pieces[turnPlayer]) == mask) {
+			if((mask & getPieces(turnPlayer)) == mask) {
 				return true;
 			}
 		}
@@ -614,9 +1227,22 @@ public class PentagoBitBoard {
 	/**
 	 * Checks if the current board state is a state where the turnplayer is doomed and if
 	 * the other player plays optimally, it will win no matter what.
+	 * Allocates its buffers, see isTwoMoveCriticalState(long[], long[], long[]) for repeated checks.
 	 * @return True is the turn player is doomed
 	 */
 	public boolean isTwoMoveCriticalState() {
+		return isTwoMoveCriticalState(new long[MAX_MOVES], new long[MAX_MOVES], new long[MAX_MOVES]);
+	}
+
+	/**
+	 * Checks if the current board state is a state where the turnplayer is doomed and if
+	 * the other player plays optimally, it will win no matter what.
+	 * @param moves Buffer receiving the moves of the turn player, must hold at least MAX_MOVES moves
+	 * @param criticalMoves Buffer given to isCriticalState after each of these moves, must hold at least MAX_MOVES moves
+	 * @param keys Buffer used to sort the keys of the moves (see getUniqueMoves), must hold at least MAX_MOVES keys
+	 * @return True is the turn player is doomed
+	 */
+	public boolean isTwoMoveCriticalState(long[] moves, long[] criticalMoves, long[] keys) {
 
 		// If the game is over, this is not a critical state
 		if (gameOver()) {
@@ -635,14 +1261,14 @@ public class PentagoBitBoard {
 
 		for (int i = 0; i < FOUR_LONG_MASKS.length; i++) {
 			// If the opponent is already blocking this win, continue
-			if ((FOUR_LONG_MASKS[i] & pieces[1 - player]) > 0)
+			if ((FOUR_LONG_MASKS[i] & getPieces(1 - player)) > 0)
 				continue;
 
 			// If the opponent is blocking the four
-			if ((FOUR_LONG_BLOCK_MASKS[i] & pieces[1 - player]) > 0)
+			if ((FOUR_LONG_BLOCK_MASKS[i] & getPieces(1 - player)) > 0)
 				continue;
 
-			long masked = (~(pieces[player] & FOUR_LONG_MASKS[i])) & FOUR_LONG_MASKS[i];
+			long masked = (~(getPieces(player) & FOUR_LONG_MASKS[i])) & FOUR_LONG_MASKS[i];
 
 			if ((masked & (masked - 1)) == 0)
 				count++;
@@ -657,19 +1283,22 @@ public class PentagoBitBoard {
 			return false;
 
 		boolean clear = true;
-		for (Long otherMove : getAllLegalNonSymmetricMoves()) {
+		int numMoves = getUniqueMoves(moves, keys);
+
+		for (int i = 0; i < numMoves; i++) {
+			long otherMove = moves[i];
 
 			// Play the opponent move
-			processMove(otherMove);
+			makeMove(otherMove);
 
 			// If the opponent can win or put us in a critical state, this is not a two moves away state.
-			if (winner == 1 - player || isCriticalState()) {
-				undoMove(otherMove);
+			if (winner == 1 - player || isCriticalState(criticalMoves, keys)) {
+				unmakeMove();
 				clear = false;
 				break;
 			}
 
-			undoMove(otherMove);
+			unmakeMove();
 		}
 
 		// If the move does not lead to an immediate defeat, it is ok
@@ -681,9 +1310,21 @@ public class PentagoBitBoard {
 	/**
 	 * Checks if the current state is a critical state. This means that no matter what move is played
 	 * by the turn player, the other player will win.
+	 * Allocates its buffers, see isCriticalState(long[], long[]) for repeated checks.
 	 * @return True if this is a critical state
 	 */
 	public boolean isCriticalState() {
+		return isCriticalState(new long[MAX_MOVES], new long[MAX_MOVES]);
+	}
+
+	/**
+	 * Checks if the current state is a critical state. This means that no matter what move is played
+	 * by the turn player, the other player will win.
+	 * @param moves Buffer receiving the moves of the turn player, must hold at least MAX_MOVES moves
+	 * @param keys Buffer used to sort the keys of the moves (see getUniqueMoves), must hold at least MAX_MOVES keys
+	 * @return True if this is a critical state
+	 */
+	public boolean isCriticalState(long[] moves, long[] keys) {
 
 		// If the game is over, this is not a critical state
 		if (gameOver()) {
@@ -697,35 +1338,39 @@ public class PentagoBitBoard {
 			return false;
 		}
 
+		// The moves of the opponent are generated once for all the checks
+		int numMoves = getUniqueMoves(moves, keys);
+
 		for (int i = 0; i < 28; i+=2) {
 			// If the opponent is already blocking this win continue
-			if ((WINNING_MASKS[i] & pieces[1 - player]) > 0)
+			if ((WINNING_MASKS[i] & getPieces(1 - player)) > 0)
 				continue;
-			if ((WINNING_MASKS[i+1] & pieces[1 - player]) > 0)
+			if ((WINNING_MASKS[i+1] & getPieces(1 - player)) > 0)
 				continue;
 
-			long masked = (~(pieces[player] & WINNING_MASKS[i])) & WINNING_MASKS[i];
+			long masked = (~(getPieces(player) & WINNING_MASKS[i])) & WINNING_MASKS[i];
 
 			if ((masked & (masked - 1)) != 0)
 				continue;
 
-			masked = (~(pieces[player] & WINNING_MASKS[i+1])) & WINNING_MASKS[i+1];
+			masked = (~(getPieces(player) & WINNING_MASKS[i+1])) & WINNING_MASKS[i+1];
 
 			if ((masked & (masked - 1)) != 0)
 				continue;
 
 			boolean clear = true;
-			for (Long otherMove : getAllLegalNonSymmetricMoves()) {
+			for (int j = 0; j < numMoves; j++) {
+				long otherMove = moves[j];
 
-				processMove(otherMove);
+				makeMove(otherMove);
 
 				if (winner == 1 - player) {
-					undoMove(otherMove);
+					unmakeMove();
 					clear = false;
 					break;
 				}
 
-				undoMove(otherMove);
+				unmakeMove();
 			}
 
 			if (clear) {
@@ -733,17 +1378,18 @@ public class PentagoBitBoard {
 			}
 		}
 
-		for (Long otherMove : getAllLegalNonSymmetricMoves()) {
+		for (int i = 0; i < numMoves; i++) {
+			long otherMove = moves[i];
 
-			processMove(otherMove);
+			makeMove(otherMove);
 
 			// After the opponent plays make sure that we have a way to win.
 			if (getWinMove(player) == 0) {
-				undoMove(otherMove);
+				unmakeMove();
 				return false;
 			}
 
-			undoMove(otherMove);
+			unmakeMove();
 		}
 
 		return true;
@@ -756,16 +1402,16 @@ public class PentagoBitBoard {
 	 */
 	public long getWinMove(int player) {
 
-		long[][] swappedBoards = getAllSwapConfigurations();
-		for (int i = 0; i < swappedBoards.length; i++) {
+		long own = getPieces(player);
+		long opponent = getPieces(1 - player);
+
+		for (int i = 0; i < QUAD_SWAPS.length; i++) {
 
-			long tempMove = getWinMoveForSwap(swappedBoards[i], player);
+			long tempMove = getWinMoveForSwap(swapQuadrants(own, i), swapQuadrants(opponent, i));
 
 			if (tempMove > 0) {
-				long[] movePair = new long[2];
-				movePair[0] = tempMove;
-				swapQuadrants(movePair, QUAD_SWAPS[i][0], QUAD_SWAPS[i][1]);
-				return PentagoBitMove.createBitMove(player, QUAD_SWAPS[i][0], QUAD_SWAPS[i][1], movePair[0]);
+				// The swap is its own inverse, swapping the position found gives the placement before the swap
+				return PentagoBitMove.createBitMove(player, QUAD_SWAPS[i][0], QUAD_SWAPS[i][1], swapQuadrants(tempMove, i));
 			}
 
 		}
@@ -775,17 +1421,17 @@ public class PentagoBitBoard {
 
 	/**
 	 * Get the position of a win move for a particular board configuration
-	 * @param swappedBoard Permuted board
-	 * @param player  Player to check for win
+	 * @param own Permuted pieces of the player to check for win
+	 * @param opponent Permuted pieces of the opponent
 	 * @return The win move position for this permutation of the board. 0 if non exist
 	 */
-	private long getWinMoveForSwap(long[] swappedBoard, int player) {
+	private static long getWinMoveForSwap(long own, long opponent) {
 
 		long winMove = 0;
 
 		for (int i = 0; i < WINNING_MASKS.length; i++) {
 
-			long masked = swappedBoard[1 - player] & WINNING_MASKS[i];
+			long masked = opponent & WINNING_MASKS[i];
 
 			// If this swap leads to opponent win
 			if (masked == WINNING_MASKS[i]) {
@@ -797,12 +1443,12 @@ public class PentagoBitBoard {
 			}
 
 
-			masked = (~(swappedBoard[player] & WINNING_MASKS[i])) & WINNING_MASKS[i];
+			masked = (~(own & WINNING_MASKS[i])) & WINNING_MASKS[i];
 
 			if (winMove == 0) {
 				// If the mask applied matches perfectly, one move away from win. could place anywhere
 				if (masked == 0) {
-					long availibleSpots = (~(swappedBoard[0] | swappedBoard[1])) & 0xFFFFFFFFFL;
+					long availibleSpots = (~(own | opponent)) & 0xFFFFFFFFFL;
 					int bitNum = 0;
 
 					while (availibleSpots > 0) {
@@ -826,6 +1472,302 @@ public class PentagoBitBoard {
 		return winMove;
 	}
 
+	/**
+	 * Plays a random game from this state without modifying it, using the same default policy as the MCTS search:
+	 * if a move that leads to a win is available it is played, otherwise a random move is played.
+	 * The game is played on primitive local variables such that no memory is allocated.
+	 * @param placements The coordinates of the pieces placed by each player are added to it, indexed by player. Can be
+	 *                   null if they are not needed.
+	 * @param random The random generator of the calling thread
+	 * @return The winner of the game
+	 */
+	public byte playout(long[] placements, FastRandom random) {
+		return playout(placements, random, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Plays a random game from this state like playout, but stops once at least maxPlies moves were played and the
+	 * position is quiet, meaning neither player can win on their next move. The winner of a stopped game is drawn
+	 * with the probability given by the static evaluation of the position for the player to move.
+	 * @param placements The coordinates of the pieces placed by each player are added to it, indexed by player. Can be
+	 *                   null if they are not needed.
+	 * @param random The random generator of the calling thread
+	 * @param maxPlies Number of moves after which the game is stopped at the first quiet position
+	 * @return The winner of the game, or the winner drawn from the evaluation if the game was stopped
+	 */
+	public byte playout(long[] placements, FastRandom random, int maxPlies) {
+
+		if (gameOver()) {
+			return this.winner;
+		}
+
+		long mover = getPieces(this.turnPlayer);
+		long other = getPieces(1 - this.turnPlayer);
+		int player = this.turnPlayer;
+		int turn = this.turnNumber;
+		int cutoff = (int) Math.min(MAX_TURNS, (long) turn + maxPlies);
+
+		while (true) {
+
+			long move = findWinMove(mover, other, player);
+			if (move == 0) {
+				// Only quiet positions are evaluated since a win on the next move would not show in the evaluation
+				if (turn >= cutoff && findWinMove(other, mover, 1 - player) == 0) {
+					return estimateWinner(mover, other, player, random);
+				}
+
+				move = randomMove(mover | other, player, random);
+			}
+
+			long coord = getBitCoord(move);
+			int swap = SWAP_INDEX[getAQuad(move)][getBQuad(move)];
+
+			if (placements != null) {
+				placements[player] |= coord;
+			}
+
+			// Place the piece then swap the quadrants of both players
+			mover = swapQuadrants(mover | coord, swap);
+			other = swapQuadrants(other, swap);
+			turn++;
+
+			boolean moverWin = hasFiveInARow(mover, swap, swapQuadrants(coord, swap));
+			boolean otherWin = hasFiveInARow(other, swap, 0);
+
+			if (moverWin) {
+				return otherWin ? DRAW : (byte) player;
+			}
+			else if (otherWin) {
+				return (byte) (1 - player);
+			}
+			else if (turn >= MAX_TURNS) {
+				return DRAW;
+			}
+
+			// Next turn
+			long pieces = mover;
+			mover = other;
+			other = pieces;
+			player = 1 - player;
+		}
+	}
+
+	/**
+	 * Checks if the player to move can win on this move. Unlike getWinMove, no memory is allocated.
+	 * @return true if a win move exists
+	 */
+	public boolean hasWinMove() {
+		return !gameOver() && findWinMove(getPieces(this.turnPlayer), getPieces(1 - this.turnPlayer), this.turnPlayer) != 0;
+	}
+
+	/**
+	 * Checks if neither player can win on their next move
+	 * @return true if the position is quiet
+	 */
+	public boolean isQuiet() {
+		long mover = getPieces(this.turnPlayer);
+		long other = getPieces(1 - this.turnPlayer);
+
+		return findWinMove(mover, other, this.turnPlayer) == 0 && findWinMove(other, mover, 1 - this.turnPlayer) == 0;
+	}
+
+	/**
+	 * Draws the winner of this position with the probability that the player to move wins according to the static
+	 * evaluation. The evaluation is only meaningful for quiet positions.
+	 * @param random The random generator of the calling thread
+	 * @return The winner drawn, or the winner if the game is over
+	 */
+	public byte estimateWinner(FastRandom random) {
+
+		if (gameOver()) {
+			return this.winner;
+		}
+
+		return estimateWinner(getPieces(this.turnPlayer), getPieces(1 - this.turnPlayer), this.turnPlayer, random);
+	}
+
+	/**
+	 * Probability that the player to move wins according to the static evaluation, the probability estimateWinner
+	 * draws the winner with. The evaluation is only meaningful for quiet positions.
+	 * @return The probability that the player to move wins, 1, 0 or 0.5 if the game is over
+	 */
+	public double getWinProbability() {
+
+		if (gameOver()) {
+			return this.winner == this.turnPlayer ? 1 : this.winner == DRAW ? 0.5 : 0;
+		}
+
+		return winProbability(getPieces(this.turnPlayer), getPieces(1 - this.turnPlayer));
+	}
+
+	/**
+	 * @param mover Pieces of the player to move
+	 * @param other Pieces of the other player
+	 * @return The probability that the player to move wins according to the static evaluation
+	 */
+	private static double winProbability(long mover, long other) {
+		double logOdds = evaluatePieces(mover, other) / EVALUATION_SCALE + MOVER_ADVANTAGE;
+		return 1 / (1 + Math.exp(-logOdds));
+	}
+
+	/**
+	 * Draws the winner of a position with the probability that the player to move wins according to the static
+	 * evaluation of the position
+	 * @param mover Pieces of the player to move
+	 * @param other Pieces of the other player
+	 * @param player The player to move
+	 * @param random The random generator of the calling thread
+	 * @return The winner drawn
+	 */
+	private static byte estimateWinner(long mover, long other, int player, FastRandom random) {
+
+		return (byte) (random.nextDouble() < winProbability(mover, other) ? player : 1 - player);
+	}
+
+	/**
+	 * Allocation free version of getWinMove used by the playout. Moves are searched in the same order as getWinMove.
+	 * @param own Pieces of the player to find a win move for
+	 * @param opponent Pieces of the opponent
+	 * @param player The player to find a win move for
+	 * @return Win BitMove if it exists, 0 if none exists.
+	 */
+	static long findWinMove(long own, long opponent, int player) {
+
+		for (int swap = 0; swap < QUAD_SWAPS.length; swap++) {
+
+			long swappedOwn = swapQuadrants(own, swap);
+			long swappedOpponent = swapQuadrants(opponent, swap);
+
+			long winCoord = 0;
+
+			for (long mask : WINNING_MASKS) {
+
+				long opponentMasked = swappedOpponent & mask;
+
+				// If this swap leads to opponent win, no move with this swap wins
+				if (opponentMasked == mask) {
+					winCoord = 0;
+					break;
+				}
+				// If the opponent is already blocking this win, continue
+				else if (opponentMasked != 0 || winCoord != 0) {
+					continue;
+				}
+
+				long missing = mask & ~swappedOwn;
+
+				// The swap alone wins, the piece can be placed on any available spot
+				if (missing == 0) {
+					winCoord = Long.lowestOneBit(~(swappedOwn | swappedOpponent) & BOARD_MASK);
+				}
+				// If the mask applied is missing one bit, it is one move away from a win
+				else if ((missing & (missing - 1)) == 0) {
+					winCoord = missing;
+				}
+			}
+
+			if (winCoord != 0) {
+				// Swapping twice restores the quadrants, which gives the coordinate before the swap
+				return createBitMove(player, QUAD_SWAPS[swap][0], QUAD_SWAPS[swap][1], swapQuadrants(winCoord, swap));
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Picks a move uniformly among all legal (placement, quadrant swap) pairs
+	 * @param occupied Coordinates where a piece is placed. At least one coordinate must be empty.
+	 * @param player The player to move
+	 * @param random The random generator of the calling thread
+	 * @return A random legal move
+	 */
+	private static long randomMove(long occupied, int player, FastRandom random) {
+
+		long availableSpots = ~occupied & BOARD_MASK;
+
+		// Each empty coordinate can be combined with every swap
+		int pair = random.nextInt(Long.bitCount(availableSpots) * NUM_SWAPS);
+
+		// Dividing by a constant avoids a hardware division
+		long coord = selectBit(availableSpots, pair / NUM_SWAPS);
+
+		return setPlayer(SWAP_MOVE_BITS[pair % NUM_SWAPS] | coord, player);
+	}
+
+	/**
+	 * Finds the k-th set bit of a bit string in constant time. The half word, then quarter word then byte holding the
+	 * bit is found by counting bits, and the bit is looked up in the byte. The steps are branch free since k is random
+	 * and the branches could not be predicted.
+	 * @param bits The bit string
+	 * @param k Index of the set bit to find, starting at 0 for the least significant set bit. Must be lower than the
+	 *          number of set bits.
+	 * @return The k-th set bit
+	 */
+	static long selectBit(long bits, int k) {
+
+		// step is -1 if the bit is above the bits counted, 0 otherwise
+		int count = Long.bitCount(bits & 0xFFFFFFFFL);
+		int step = (count - k - 1) >> 31;
+		k -= count & step;
+		int shift = 32 & step;
+
+		count = Long.bitCount((bits >>> shift) & 0xFFFFL);
+		step = (count - k - 1) >> 31;
+		k -= count & step;
+		shift += 16 & step;
+
+		count = Long.bitCount((bits >>> shift) & 0xFFL);
+		step = (count - k - 1) >> 31;
+		k -= count & step;
+		shift += 8 & step;
+
+		int bitInByte = SELECT_IN_BYTE[(((int) (bits >>> shift) & 0xFF) << 3) | k];
+
+		return 1L << (shift + bitInByte);
+	}
+
+	/**
+	 * Swaps two quadrants of the pieces of one player
+	 * @param pieces The pieces of the player
+	 * @param swap Index of the swap in QUAD_SWAPS
+	 * @return The pieces with the quadrants swapped
+	 */
+	private static long swapQuadrants(long pieces, int swap) {
+		int shift = SWAP_SHIFTS[swap];
+		long smallerQuad = QUADRANT_MASKS[QUAD_SWAPS[swap][0]];
+		long largerQuad = QUADRANT_MASKS[QUAD_SWAPS[swap][1]];
+
+		return (pieces & ~(smallerQuad | largerQuad)) | ((pieces & smallerQuad) >>> shift) | ((pieces & largerQuad) << shift);
+	}
+
+	/**
+	 * Checks if a move completed five pieces in a row for one player, given that the game was not over before the move.
+	 * Only the winning masks touching the swapped quadrants, and going through the placed piece if it is outside of
+	 * them, are checked.
+	 * @param pieces The pieces of the player after the move
+	 * @param swap Index of the swap of the move in QUAD_SWAPS
+	 * @param placed Coordinate of the piece placed by the player after the swap, 0 if the player did not move
+	 * @return true if the player has five pieces in a row
+	 */
+	private static boolean hasFiveInARow(long pieces, int swap, long placed) {
+		for (long mask : SWAP_LINES[swap]) {
+			if ((mask & pieces) == mask) {
+				return true;
+			}
+		}
+
+		if ((placed & ~SWAP_QUADRANTS[swap]) != 0) {
+			for (long mask : COORD_LINES[Long.numberOfTrailingZeros(placed)]) {
+				if ((mask & pieces) == mask) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
 	public int evaluateBoard(int player) {
 
 		if (gameOver()) {
@@ -840,35 +1782,46 @@ public class PentagoBitBoard {
 			}
 		}
 
+		return evaluatePieces(getPieces(player), getPieces(1 - player));
+	}
+
+	/**
+	 * Static evaluation of a position. For every swap that can be played, each line of five that is not blocked by the
+	 * opponent adds the square of the number of pieces of the player on it, and each line not blocked by the player
+	 * subtracts the square of the number of pieces of the opponent on it.
+	 * @param own Pieces of the player to evaluate the position for
+	 * @param opponent Pieces of the opponent
+	 * @return The score of the position, positive if it favors the player
+	 */
+	static int evaluatePieces(long own, long opponent) {
+
 		int score = 0;
 
-		long[][] swapPermutations = getAllSwapConfigurations();
+		for (int swap = 0; swap < NUM_SWAPS; swap++) {
 
-		for (long[] swap : swapPermutations) {
+			long swappedOwn = swapQuadrants(own, swap);
+			long swappedOpponent = swapQuadrants(opponent, swap);
 
-			for (int i = 0; i < WINNING_MASKS.length; i++) {
+			for (long mask : WINNING_MASKS) {
 
-				long playerMasked = WINNING_MASKS[i] & swap[player];
-				long opponentMasked = WINNING_MASKS[i] & swap[1 - player];
+				long ownMasked = mask & swappedOwn;
+				long opponentMasked = mask & swappedOpponent;
 
 				if (opponentMasked == 0) {
 					// The opponent is not blocking anything here
-					int bitCount = countSetBits(playerMasked);
-					score += (bitCount*bitCount);
+					int bitCount = Long.bitCount(ownMasked);
+					score += bitCount * bitCount;
 				}
 
-				if (playerMasked == 0) {
+				if (ownMasked == 0) {
 					// We are not blocking this mask at all
-					int bitCount = countSetBits(opponentMasked);
-					score -= (bitCount*bitCount);
+					int bitCount = Long.bitCount(opponentMasked);
+					score -= bitCount * bitCount;
 				}
-
 			}
-
 		}
 
 		return score;
-
 	}
 
 
@@ -894,13 +1847,13 @@ public class PentagoBitBoard {
 			initialOffset += 3;
 		}
 
-		long longQuad = (QUADRANT_MASKS[quadNumber] & pieces[0]) >> initialOffset;
+		long longQuad = (QUADRANT_MASKS[quadNumber] & this.white) >> initialOffset;
 		longQuad = (longQuad & 0b111L) + (longQuad >> 3);
 		longQuad = (longQuad & 0b111111L) + ((longQuad & 0b111000000000L) >> 3);
 
 		quad[0] = (int) longQuad;
 
-		longQuad = (QUADRANT_MASKS[quadNumber] & pieces[1]) >> initialOffset;
+		longQuad = (QUADRANT_MASKS[quadNumber] & this.black) >> initialOffset;
 		longQuad = (longQuad & 0b111L) + ((longQuad) >> 3);
 		longQuad = (longQuad & 0b111111L) + ((longQuad & 0b111000000000L) >> 3);
 
@@ -910,41 +1863,6 @@ public class PentagoBitBoard {
 
 	}
 
-	private static int countSetBits(long n) {
-		return countSetBits((int) n) + countSetBits((int) (n >> 32));
-	}
-
-	private static int countSetBits(int n)
-	{
-		n = n - ((n >> 1) & 0x55555555);
-		n = (n & 0x33333333) + ((n >> 2) & 0x33333333);
-		n = (n + (n >> 4)) & 0x0F0F0F0F;
-		n = n + (n >> 8);
-		n = n + (n >> 16);
-		return n & 0x0000003F;
-	}
-
-	/**
-	 * Gets all swap configuration of the current board
-	 * return[i][0] white pieces with quadrants QUAD_SWAPS[i] swapped
-	 * @return  All 6 swap configurations of current board
-	 */
-	private long[][] getAllSwapConfigurations() {
-
-		long[][] swappedBoards = new long[QUAD_SWAPS.length][2];
-
-		for (int i = 0; i < QUAD_SWAPS.length; i++) {
-			// Copy the current board
-			swappedBoards[i][0] = this.pieces[0];
-			swappedBoards[i][1] = this.pieces[1];
-
-			// Perform the swap
-			swapQuadrants(swappedBoards[i], QUAD_SWAPS[i][0], QUAD_SWAPS[i][1]);
-		}
-
-		return swappedBoards;
-	}
-
 	/**
 	 * Checks if the game is over
 	 * @return true if game is over, false if still ongoing
@@ -954,7 +1872,11 @@ public class PentagoBitBoard {
 	}
 
 	long[] getPieces() {
-		return this.pieces.clone();
+		return new long[] {this.white, this.black};
+	}
+
+	private long getPieces(int player) {
+		return player == WHITE ? this.white : this.black;
 	}
 
 	public byte getWinner() {
@@ -984,9 +1906,9 @@ public class PentagoBitBoard {
 				boardString.append(" ");
 
 				long xy = colRowToBitCoord(x, y);
-				if((pieces[WHITE] & xy) == xy) {
+				if((this.white & xy) == xy) {
 					boardString.append('W');
-				} else if((pieces[BLACK] & xy) == xy) {
+				} else if((this.black & xy) == xy) {
 					boardString.append('B');
 				} else {
 					boardString.append(" ");
@@ -1050,11 +1972,11 @@ public class PentagoBitBoard {
 	private static void maskTest() {
 		System.out.println("Winning Masks:");
 		for (long mask: WINNING_MASKS) {
-			System.out.println(new PentagoBitBoard(new long[] {mask, 0L}, (byte)0, (byte)0, (byte)0));
+			System.out.println(new PentagoBitBoard(mask, 0L, (byte)0, (byte)0, (byte)0));
 		}
 		System.out.println("One Away Masks:");
 		for (long mask: oneAwayMasks) {
-			System.out.println(new PentagoBitBoard(new long[] {mask, 0L}, (byte)0, (byte)0, (byte)0));
+			System.out.println(new PentagoBitBoard(mask, 0L, (byte)0, (byte)0, (byte)0));
 		}
 	}
 
@@ -1,6 +1,7 @@
 package pentago_agent;
 
 import pentago_swap.PentagoBoardState;
+import pentago_swap.PentagoCoord;
 import pentago_swap.PentagoMove;
 
 import java.util.HashMap;
@@ -159,6 +160,21 @@ public class PentagoBitMove {
         return new PentagoMove(coordColRow[1], coordColRow[0], PentagoBoardState.Quadrant.values()[smallerQuad], PentagoBoardState.Quadrant.values()[largerQuad], player);
     }
 
+    /**
+     * Converts a PentagoMove object to a move long
+     * @param move The Pentago move to convert
+     * @return an equivalent move long
+     */
+    static long pentagoMoveToBitMove(PentagoMove move) {
+
+        int aQuad = move.getASwap().ordinal();
+        int bQuad = move.getBSwap().ordinal();
+        PentagoCoord coord = move.getMoveCoord();
+
+        // Different coordinate system so x -> row, y -> col. The smaller quadrant is always stored first
+        return createBitMove(move.getPlayerID(), Math.min(aQuad, bQuad), Math.max(aQuad, bQuad), coord.getY(), coord.getX());
+    }
+
     public static String toPrettyString(long move) {
         int[] coord = bitCoordToColRow(move);
         return String.format("Player %d, Move: (%d, %d), Swap: (%s, %s)", getPlayer(move), coord[0], coord[1], intToQuad.get(getAQuad(move)), intToQuad.get(getBQuad(move)));
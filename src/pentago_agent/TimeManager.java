@@ -0,0 +1,156 @@
+package pentago_agent;
+
+import boardgame.Server;
+
+/**
+ * Decides how much time the agent spends on each move.
+ *
+ * Every move is allocated a share of the clock scaled by the phase of the game and by the number of moves left after
+ * filtering the dangerous ones. The time a move does not use is banked and part of it is spent on the next moves.
+ * The search is given a soft budget, after which it stops once its best move is stable, and a hard budget it can be
+ * extended to while the best move keeps changing.
+ *
+ * The first move of each player is allowed more time by the server, the agent uses it to grow the tree it reuses on
+ * the next moves. A safety margin is kept under the limits of the server for JVM and garbage collection pauses.
+ */
+public class TimeManager {
+
+    /**
+     * Time limits of the server for the first move and for the other moves. The tournament limits apply if the server
+     * is more permissive.
+     */
+    private static final long FIRST_MOVE_TIME_LIMIT = Math.min(Server.FIRST_MOVE_TIMEOUT, 30000);
+    private static final long MOVE_TIME_LIMIT = Math.min(Server.DEFAULT_TIMEOUT, 2000);
+
+    /**
+     * Time kept under the limits for JVM and garbage collection pauses. The first move also loads and compiles the
+     * classes of the agent.
+     */
+    private static final long FIRST_MOVE_SAFETY_MARGIN = 5000;
+    private static final long SAFETY_MARGIN = 250;
+
+    /**
+     * Share of the clock of an average move
+     */
+    private static final long BASE_TIME = 1400;
+
+    /**
+     * Scale of the time of a move by phase of the game, indexed by number of pieces on the board / PIECES_PER_PHASE.
+     * The middle game decides most games, the opening is mostly searched through the tree reused from the first move
+     * and the endgame is often solved.
+     */
+    private static final double[] PHASE_FACTORS = {0.8, 1.2, 1.2, 1.0, 0.8, 0.6};
+    private static final int PIECES_PER_PHASE = 6;
+
+    /**
+     * Number of moves for which the time of a move is not scaled. The time grows with the square root of the number
+     * of moves, between MIN_MOVES_FACTOR and MAX_MOVES_FACTOR.
+     */
+    private static final double REFERENCE_MOVES = 60;
+    private static final double MIN_MOVES_FACTOR = 0.5;
+    private static final double MAX_MOVES_FACTOR = 1.3;
+
+    /**
+     * Fraction of the banked time spent on a move
+     */
+    private static final double BANK_SPEND_FRACTION = 0.5;
+
+    /**
+     * The search can be extended to this multiple of its soft budget while the best move keeps changing
+     */
+    private static final double MAX_EXTENSION = 1.5;
+
+    private long moveStartTime;
+    private boolean firstMove;
+    private long softBudget;
+    private long hardBudget;
+
+    /**
+     * Share of the clock allotted to the move, the soft budget without the time taken from the bank
+     */
+    private long moveAllowance;
+
+    /**
+     * Time saved on the previous moves of the game
+     */
+    private long bankedTime = 0;
+
+    /**
+     * Allocates the time of a move. Must be called as soon as the agent is asked to move.
+     * @param boardState The current board state
+     */
+    public void startMove(PentagoBitBoard boardState) {
+
+        moveStartTime = System.currentTimeMillis();
+
+        // The server counts the turns of both players together
+        firstMove = boardState.getTurnNumber() < 2;
+
+        if (firstMove) {
+            hardBudget = FIRST_MOVE_TIME_LIMIT - FIRST_MOVE_SAFETY_MARGIN;
+            softBudget = hardBudget / 2;
+        }
+        else {
+            hardBudget = MOVE_TIME_LIMIT - SAFETY_MARGIN;
+            double phaseFactor = PHASE_FACTORS[boardState.getTurnNumber() / PIECES_PER_PHASE];
+            moveAllowance = (long) (BASE_TIME * phaseFactor);
+            softBudget = (long) (moveAllowance + BANK_SPEND_FRACTION * bankedTime);
+        }
+    }
+
+    /**
+     * Scales the time of the move by the number of moves to choose from
+     * @param numMoves Number of moves left after filtering the dangerous moves
+     */
+    public void setMoveCount(int numMoves) {
+        double movesFactor = Math.max(MIN_MOVES_FACTOR, Math.min(MAX_MOVES_FACTOR, Math.sqrt(numMoves / REFERENCE_MOVES)));
+        moveAllowance = (long) (moveAllowance * movesFactor);
+        softBudget = (long) (softBudget * movesFactor);
+    }
+
+    /**
+     * @return The time the search can use before stopping once its best move is stable
+     */
+    public long getSearchTime() {
+        return Math.max(0, Math.min(softBudget, hardBudget) - elapsed());
+    }
+
+    /**
+     * @return The time the search can be extended to while its best move keeps changing
+     */
+    public long getMaxSearchTime() {
+        return Math.max(0, Math.min((long) (MAX_EXTENSION * softBudget), hardBudget) - elapsed());
+    }
+
+    /**
+     * Banks the time the move did not use of the share of the clock it was allotted, or takes the time it used beyond
+     * it from the bank. Must be called once the move is decided.
+     * @return The time spent on the move
+     */
+    public long endMove() {
+
+        long elapsed = elapsed();
+
+        // The first move has its own allowance which cannot be saved. No move can use more than the hard budget.
+        if (!firstMove) {
+            bankedTime = Math.max(0, bankedTime + Math.min(moveAllowance, hardBudget) - elapsed);
+        }
+
+        return elapsed;
+    }
+
+    /**
+     * Clears the banked time at the end of a game
+     */
+    public void reset() {
+        bankedTime = 0;
+    }
+
+    public long getBankedTime() {
+        return bankedTime;
+    }
+
+    private long elapsed() {
+        return System.currentTimeMillis() - moveStartTime;
+    }
+}